@@ -1,7 +1,6 @@
 package de.mineformers.cursesync;
 
 import com.gluonhq.ignite.DIContext;
-import com.gluonhq.ignite.guice.GuiceContext;
 import com.google.common.base.Splitter;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Multimap;
@@ -12,29 +11,29 @@ import com.google.gson.JsonParseException;
 import com.google.gson.stream.JsonWriter;
 import com.google.inject.AbstractModule;
 import com.google.inject.name.Names;
+import de.mineformers.cursesync.cli.BatchSync;
 import de.mineformers.cursesync.cli.CommandLineInterface;
+import de.mineformers.cursesync.cli.WatchDaemon;
+import de.mineformers.cursesync.embed.CurseSyncEngine;
 import de.mineformers.cursesync.gui.GraphicalInterface;
 import de.mineformers.cursesync.sync.CurseAPI;
-import de.mineformers.cursesync.sync.installer.ClientInstaller;
-import de.mineformers.cursesync.sync.installer.Installer;
-import de.mineformers.cursesync.sync.installer.ServerInstaller;
-import de.mineformers.cursesync.sync.mode.FileStrategy;
+import de.mineformers.cursesync.sync.ResourceGovernor;
+import de.mineformers.cursesync.sync.TransferStats;
+import de.mineformers.cursesync.sync.installer.OptionalMods;
 import de.mineformers.cursesync.sync.mode.Mode;
+import de.mineformers.cursesync.sync.model.ChecksumAlgorithm;
 import de.mineformers.cursesync.sync.model.Installation;
+import de.mineformers.cursesync.sync.model.OverrideFilter;
+import de.mineformers.cursesync.sync.model.PlanFile;
 import de.mineformers.cursesync.sync.model.ProjectVersion;
 import de.mineformers.cursesync.util.DateTimeAdapter;
 import de.mineformers.cursesync.util.FileAdapter;
+import de.mineformers.cursesync.util.HashCodeAdapter;
 import de.mineformers.cursesync.util.MultimapAdapter;
-import de.mineformers.cursesync.util.SafeRedirectStrategy;
 import joptsimple.OptionParser;
 import joptsimple.OptionSet;
 import joptsimple.OptionSpec;
 import joptsimple.ValueConverter;
-import org.apache.http.client.HttpClient;
-import org.apache.http.client.config.RequestConfig;
-import org.apache.http.impl.client.BasicCookieStore;
-import org.apache.http.impl.client.HttpClientBuilder;
-import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
 import org.apache.logging.log4j.Level;
 import org.apache.logging.log4j.Logger;
 
@@ -44,9 +43,6 @@ import java.io.*;
 import java.util.List;
 import java.util.Properties;
 import java.util.concurrent.Executor;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
 
 public class CurseSync
 {
@@ -56,6 +52,7 @@ public class CurseSync
             .setPrettyPrinting()
             .registerTypeAdapter(FileAdapter.TYPE, new FileAdapter())
             .registerTypeAdapter(DateTimeAdapter.TYPE, new DateTimeAdapter())
+            .registerTypeAdapter(HashCodeAdapter.TYPE, new HashCodeAdapter())
             .registerTypeAdapter(new TypeToken<Multimap<String, ProjectVersion>>()
             {
             }.getType(), new MultimapAdapter())
@@ -69,10 +66,11 @@ public class CurseSync
 
     private Configuration config;
     private CurseSyncInterface client;
-    private HttpClient http;
+    private CurseSyncEngine engine;
     private CurseAPI api;
-    private ExecutorService executor;
-    private GuiceContext context;
+    private TransferStats stats;
+    private ResourceGovernor governor;
+    private DIContext context;
     private File configFile;
 
     private CurseSync()
@@ -123,27 +121,47 @@ public class CurseSync
             System.exit(1);
         }
         saveConfig();
-        executor = Executors.newFixedThreadPool(10);
-        BasicCookieStore store = new BasicCookieStore();
-        RequestConfig requestConfig = RequestConfig.custom()
-                .setCircularRedirectsAllowed(true)
-                .setConnectionRequestTimeout(30000)
-                .setConnectTimeout(30000)
-                .setSocketTimeout(30000)
+        stats = new TransferStats();
+        if (config.tmpDirectory != null)
+            stats.load(statsFile());
+        engine = CurseSyncEngine.builder()
+                .logger(client.log())
+                .stats(stats)
                 .build();
-        PoolingHttpClientConnectionManager cm = new PoolingHttpClientConnectionManager();
-        cm.setMaxTotal(20);
-        http = HttpClientBuilder.create()
-                .setUserAgent("CurseSync")
-                .setDefaultCookieStore(store)
-                .setDefaultRequestConfig(requestConfig)
-                .setRedirectStrategy(SafeRedirectStrategy.INSTANCE)
-                .setConnectionManager(cm)
-                .build();
-        context = new GuiceContext(this, () -> ImmutableList.of(new GuiceModule()));
-        context.init();
-        api = new CurseAPI();
-        context.injectMembers(api);
+        api = engine.api();
+        governor = engine.governor(config);
+        governor.lowerProcessPriority(client.log());
+        context = createContext(this, config);
+        if (!config.rollback && config.watchInterval > 0)
+        {
+            List<Configuration> targets = config.batchFile != null ? BatchSync.load(client.log(), config.batchFile, config) : BatchSync.fanOut(config);
+            if (targets == null)
+            {
+                shutdown(1);
+                return;
+            }
+            new WatchDaemon(client.log(), api, targets, config.watchInterval, this::createContext).run();
+            shutdown(0);
+            return;
+        }
+        if (!config.rollback && (config.batchFile != null || config.fanOut != null && !config.fanOut.isEmpty() || config.serverOutput != null))
+        {
+            List<Configuration> targets;
+            int parallelism;
+            if (config.batchFile != null)
+            {
+                targets = BatchSync.load(client.log(), config.batchFile, config);
+                parallelism = config.batchParallelism;
+            }
+            else
+            {
+                targets = BatchSync.fanOut(config);
+                parallelism = targets.size();
+            }
+            boolean success = targets != null && new BatchSync(client.log(), targets, parallelism, this::createContext).run();
+            shutdown(success ? 0 : 1);
+            return;
+        }
         context.injectMembers(client);
         client.run();
     }
@@ -199,8 +217,54 @@ public class CurseSync
             log.error("Specified configuration file does not exist: {}", configFile.getAbsolutePath());
             return null;
         }
+        if (options.has(Options.STREAM_PACK))
+            config.streamPack = true;
+        if (options.has(Options.DIRECT_ARCHIVE))
+            config.directArchive = true;
+        if (options.has(Options.STAGED))
+            config.staged = true;
+        if (options.has(Options.SNAPSHOTS))
+            config.snapshots = options.valueOf(Options.SNAPSHOTS);
+        if (options.has(Options.OPTIONAL_MODS))
+            config.optionalMods = options.valueOf(Options.OPTIONAL_MODS);
+        if (options.has(Options.CHECKSUM_ALGORITHM))
+            config.checksumAlgorithm = options.valueOf(Options.CHECKSUM_ALGORITHM);
+        if (options.has(Options.INCLUDE_OVERRIDES) || options.has(Options.EXCLUDE_OVERRIDES))
+            config.overrideFilter = new OverrideFilter(options.valuesOf(Options.INCLUDE_OVERRIDES), options.valuesOf(Options.EXCLUDE_OVERRIDES));
+        config.rollback = options.has(Options.ROLLBACK);
+        config.batchFile = getArgument(options, Options.BATCH, null);
+        config.batchParallelism = getArgument(options, Options.BATCH_PARALLELISM, 4);
+        config.watchInterval = getArgument(options, Options.WATCH, 0);
+        if (options.has(Options.FAN_OUT))
+            config.fanOut = options.valuesOf(Options.FAN_OUT);
+        if (options.has(Options.SERVER_OUTPUT))
+            config.serverOutput = options.valueOf(Options.SERVER_OUTPUT);
+        if (options.has(Options.PACK_SOURCE))
+            config.packSource = options.valueOf(Options.PACK_SOURCE);
+        if (options.has(Options.MOD_SOURCE))
+            config.modSource = options.valueOf(Options.MOD_SOURCE);
+        if (options.has(Options.LOW_IMPACT))
+            config.lowImpact = true;
+        if (options.has(Options.WORKER_THREADS))
+            config.workerThreads = options.valueOf(Options.WORKER_THREADS);
+        if (options.has(Options.DISK_RATE))
+            config.diskRate = options.valueOf(Options.DISK_RATE);
+        config.rollbackTarget = getArgument(options, Options.ROLLBACK, null);
+        config.planOnly = options.has(Options.PLAN);
+        config.planFile = getArgument(options, Options.PLAN_FILE, null);
+        config.exportPlan = getArgument(options, Options.EXPORT_PLAN, null);
+        config.exportBundle = getArgument(options, Options.EXPORT_BUNDLE, null);
+        config.importBundle = getArgument(options, Options.IMPORT_BUNDLE, null);
         config.output = config.output == null ? null : config.output.toPath().toAbsolutePath().normalize().toFile();
         config.tmpDirectory = config.tmpDirectory == null ? null : config.tmpDirectory.toPath().toAbsolutePath().normalize().toFile();
+        config.serverOutput = config.serverOutput == null ? null : config.serverOutput.toPath().toAbsolutePath().normalize().toFile();
+        config.packSource = config.packSource == null ? null : config.packSource.toPath().toAbsolutePath().normalize().toFile();
+        config.modSource = config.modSource == null ? null : config.modSource.toPath().toAbsolutePath().normalize().toFile();
+        if (config.serverOutput != null && config.serverOutput.equals(config.output))
+        {
+            log.error("The server output directory must differ from the output directory!");
+            return null;
+        }
         return config;
     }
 
@@ -234,22 +298,35 @@ public class CurseSync
 
     public void shutdownExecutor()
     {
-        executor.shutdown();
-        try
-        {
-            executor.awaitTermination(1, TimeUnit.SECONDS);
-        }
-        catch (InterruptedException e)
-        {
-            client.log().error("Could not terminate all running asynchronous operations within 1s, forcing a shutdown...", e);
-        }
-        executor.shutdownNow();
+        engine.close();
     }
 
     public void shutdown(int code)
     {
+        if (governor != null)
+            governor.report(client.log());
         shutdownExecutor();
-        System.exit(1);
+        saveStats();
+        System.exit(code);
+    }
+
+    private File statsFile()
+    {
+        return new File(config.tmpDirectory, "transfer-stats.json");
+    }
+
+    private void saveStats()
+    {
+        if (stats == null || config.tmpDirectory == null)
+            return;
+        try
+        {
+            stats.save(statsFile());
+        }
+        catch (IOException e)
+        {
+            client.log().warn("Failed to save transfer statistics.", e);
+        }
     }
 
     public static class Options
@@ -263,6 +340,146 @@ public class CurseSync
                         .withRequiredArg()
                         .describedAs("config file")
                         .ofType(File.class);
+        public static final OptionSpec PLAN =
+                PARSER.accepts("plan",
+                        "Only prints what an installation would change and how much would have to be downloaded, without touching the output directory.");
+        public static final OptionSpec<String> ROLLBACK =
+                PARSER.accepts("rollback",
+                        "Restores a snapshot of the output directory instead of installing, without accessing the network. " +
+                                "Uses the newest snapshot differing from the current installation unless part of a snapshot name is given.")
+                        .withOptionalArg()
+                        .describedAs("snapshot")
+                        .ofType(String.class);
+        public static final OptionSpec<File> BATCH =
+                PARSER.accepts("batch",
+                        "Installs all targets listed in the given JSON file, an array of configurations, in a single process. " +
+                                "The targets share the temporary directory and mod repository unless they specify their own.")
+                        .withRequiredArg()
+                        .describedAs("batch file")
+                        .ofType(File.class);
+        public static final OptionSpec<Integer> BATCH_PARALLELISM =
+                PARSER.accepts("batch-parallelism",
+                        "The maximum number of batch targets to install at the same time, defaults to 4.")
+                        .withRequiredArg()
+                        .describedAs("count")
+                        .ofType(Integer.class);
+        public static final OptionSpec<File> FAN_OUT =
+                PARSER.accepts("fan-out",
+                        "An additional output directory to install the same pack version into, may be specified multiple times. " +
+                                "The pack is only downloaded and hashed once and its overrides are hard linked into all directories.")
+                        .withRequiredArg()
+                        .describedAs("directory")
+                        .ofType(File.class);
+        public static final OptionSpec<File> EXPORT_PLAN =
+                PARSER.accepts("export-plan",
+                        "Resolves the configured pack version, downloads it with its mods and writes everything needed for installing " +
+                                "it into the given plan file instead of installing it.")
+                        .withRequiredArg()
+                        .describedAs("file")
+                        .ofType(File.class);
+        public static final OptionSpec<File> PLAN_FILE =
+                PARSER.accepts("plan-file",
+                        "Installs the pack version from a plan file created with --export-plan, without any requests to the Curse API " +
+                                "and without hashing the pack's overrides.")
+                        .withRequiredArg()
+                        .describedAs("file")
+                        .ofType(File.class);
+        public static final OptionSpec<File> EXPORT_BUNDLE =
+                PARSER.accepts("export-bundle",
+                        "Resolves the configured pack version and writes it into a single offline bundle instead of installing it. " +
+                                "The bundle contains the plan, the pack file, the mods of both sides and the Forge installer.")
+                        .withRequiredArg()
+                        .describedAs("file")
+                        .ofType(File.class);
+        public static final OptionSpec<File> IMPORT_BUNDLE =
+                PARSER.accepts("import-bundle",
+                        "Installs the pack version of a bundle created with --export-bundle without contacting the Curse API or downloading any files.")
+                        .withRequiredArg()
+                        .describedAs("file")
+                        .ofType(File.class);
+        public static final OptionSpec<String> INCLUDE_OVERRIDES =
+                PARSER.accepts("include-overrides",
+                        "A glob pattern for override files to install, relative to the overrides directory. May be specified multiple times, " +
+                                "all overrides are installed if there is none.")
+                        .withRequiredArg()
+                        .describedAs("glob")
+                        .ofType(String.class);
+        public static final OptionSpec<String> EXCLUDE_OVERRIDES =
+                PARSER.accepts("exclude-overrides",
+                        "A glob pattern for override files not to install, relative to the overrides directory. May be specified multiple times, " +
+                                "excluded files are neither hashed, copied nor deleted.")
+                        .withRequiredArg()
+                        .describedAs("glob")
+                        .ofType(String.class);
+        public static final OptionSpec<File> SERVER_OUTPUT =
+                PARSER.accepts("server-output",
+                        "Installs the server side of the pack into this directory alongside the client side in the output directory. " +
+                                "Both are installed in parallel from a single download of the pack and the mods.")
+                        .withRequiredArg()
+                        .describedAs("directory")
+                        .ofType(File.class);
+        public static final OptionSpec<File> PACK_SOURCE =
+                PARSER.accepts("pack-source",
+                        "Installs a local pack file or an already unpacked pack directory instead of downloading the pack from CurseForge. " +
+                                "Project and version are optional then, the game version is taken from the pack's manifest.")
+                        .withRequiredArg()
+                        .describedAs("file or directory")
+                        .ofType(File.class);
+        public static final OptionSpec<File> MOD_SOURCE =
+                PARSER.accepts("mod-source",
+                        "Copies mods from this directory instead of downloading them, it must use the layout of the mod repository.")
+                        .withRequiredArg()
+                        .describedAs("directory")
+                        .ofType(File.class);
+        public static final OptionSpec LOW_IMPACT =
+                PARSER.accepts("low-impact",
+                        "Runs with lowered process and I/O priority and limits local work to " + ResourceGovernor.LOW_IMPACT_THREADS +
+                                " worker threads and " + (ResourceGovernor.LOW_IMPACT_BYTES_PER_SECOND >> 20) + " MiB/s of disk throughput, " +
+                                "unless --worker-threads or --disk-rate say otherwise. Meant for hosts running a live game server.");
+        public static final OptionSpec<Integer> WORKER_THREADS =
+                PARSER.accepts("worker-threads",
+                        "The maximum number of threads used for extracting and hashing, defaults to the number of processors.")
+                        .withRequiredArg()
+                        .describedAs("threads")
+                        .ofType(Integer.class);
+        public static final OptionSpec<Long> DISK_RATE =
+                PARSER.accepts("disk-rate",
+                        "The maximum number of bytes per second read and written while hashing, extracting and copying files. " +
+                                "Accepts the suffixes K, M and G, unlimited by default.")
+                        .withRequiredArg()
+                        .describedAs("bytes per second")
+                        .ofType(Long.class)
+                        .withValuesConvertedBy(new ValueConverter<Long>()
+                        {
+                            @Override
+                            public Long convert(String value)
+                            {
+                                String trimmed = value.trim().toUpperCase();
+                                int shift = trimmed.endsWith("K") ? 10 : trimmed.endsWith("M") ? 20 : trimmed.endsWith("G") ? 30 : 0;
+                                if (shift > 0)
+                                    trimmed = trimmed.substring(0, trimmed.length() - 1);
+                                return Long.parseLong(trimmed) << shift;
+                            }
+
+                            @Override
+                            public Class<? extends Long> valueType()
+                            {
+                                return Long.class;
+                            }
+
+                            @Override
+                            public String valuePattern()
+                            {
+                                return "<number>[K|M|G]";
+                            }
+                        });
+        public static final OptionSpec<Integer> WATCH =
+                PARSER.accepts("watch",
+                        "Keeps running and checks for new pack versions matching the configured version every given number of minutes, " +
+                                "downloading them in the background without installing them.")
+                        .withRequiredArg()
+                        .describedAs("minutes")
+                        .ofType(Integer.class);
         public static final OptionSpec CLI =
                 PARSER.acceptsAll(ImmutableList.of("c", "cli"),
                         "Makes the utility only run on the command client without GUI.");
@@ -331,6 +548,77 @@ public class CurseSync
         public static final OptionSpec FAIL_DISCREPANCIES =
                 PARSER.accepts("fail-discrepancies",
                         "Determines whether the installation should fail if there are any checksum discrepancies for overrides.");
+        public static final OptionSpec STREAM_PACK =
+                PARSER.accepts("stream-pack",
+                        "Extracts the modpack file while it is still downloading and starts downloading mods as soon as the manifest is available.");
+        public static final OptionSpec DIRECT_ARCHIVE =
+                PARSER.accepts("direct-archive",
+                        "Reads the manifest and overrides straight from the cached modpack file instead of unpacking it. Takes precedence over --stream-pack.");
+        public static final OptionSpec STAGED =
+                PARSER.accepts("staged",
+                        "Installs into a hard linked copy of the output directory and only swaps it in once the installation succeeded.");
+        public static final OptionSpec<Integer> SNAPSHOTS =
+                PARSER.accepts("snapshots",
+                        "The number of hard linked snapshots of the output directory to keep after successful installations, 0 disables them.")
+                        .withRequiredArg()
+                        .describedAs("count")
+                        .ofType(Integer.class);
+        public static final OptionSpec<OptionalMods> OPTIONAL_MODS =
+                PARSER.accepts("optional-mods",
+                        "Determines when optional mods are downloaded. 'eager' (the default) waits for them like for required mods, " +
+                                "'deferred' finishes the installation first and downloads them afterwards, 'on-demand' only installs " +
+                                "optional mods already present in the mod repository.")
+                        .withRequiredArg()
+                        .describedAs("eager | deferred | on-demand")
+                        .ofType(OptionalMods.class)
+                        .withValuesConvertedBy(new ValueConverter<OptionalMods>()
+                        {
+                            @Override
+                            public OptionalMods convert(String value)
+                            {
+                                return OptionalMods.valueOf(value.toUpperCase().replace('-', '_'));
+                            }
+
+                            @Override
+                            public Class<? extends OptionalMods> valueType()
+                            {
+                                return OptionalMods.class;
+                            }
+
+                            @Override
+                            public String valuePattern()
+                            {
+                                return "eager|deferred|on-demand";
+                            }
+                        });
+        public static final OptionSpec<ChecksumAlgorithm> CHECKSUM_ALGORITHM =
+                PARSER.accepts("checksum-algorithm",
+                        "The algorithm override files are tracked with. 'murmur3' (the default) and 'crc32c' are fast, " +
+                                "'sha-256' also detects deliberate modifications, 'md5' is what earlier versions used. " +
+                                "Existing installations switch to the new algorithm with their next update.")
+                        .withRequiredArg()
+                        .describedAs("murmur3 | crc32c | sha-256 | md5")
+                        .ofType(ChecksumAlgorithm.class)
+                        .withValuesConvertedBy(new ValueConverter<ChecksumAlgorithm>()
+                        {
+                            @Override
+                            public ChecksumAlgorithm convert(String value)
+                            {
+                                return ChecksumAlgorithm.valueOf(value.toUpperCase().replace('-', '_'));
+                            }
+
+                            @Override
+                            public Class<? extends ChecksumAlgorithm> valueType()
+                            {
+                                return ChecksumAlgorithm.class;
+                            }
+
+                            @Override
+                            public String valuePattern()
+                            {
+                                return "murmur3|crc32c|sha-256|md5";
+                            }
+                        });
     }
 
     public static class Configuration
@@ -349,6 +637,102 @@ public class CurseSync
         @Nullable
         public File tmpDirectory;
         public boolean failDiscrepancies;
+        public boolean streamPack;
+        public boolean directArchive;
+        public boolean staged;
+        public int snapshots;
+        /**
+         * When to download optional mods, null means {@link OptionalMods#EAGER}.
+         */
+        @Nullable
+        public OptionalMods optionalMods;
+        /**
+         * The algorithm to track override files with, null means {@link ChecksumAlgorithm#DEFAULT}.
+         */
+        @Nullable
+        public ChecksumAlgorithm checksumAlgorithm;
+        /**
+         * Selects the override files to install, null if all of them are installed.
+         */
+        @Nullable
+        public OverrideFilter overrideFilter;
+        /**
+         * Additional output directories receiving the same installation as {@link #output}, not stored in the
+         * configuration file.
+         */
+        @Nullable
+        public transient List<File> fanOut;
+        /**
+         * If set, {@link #output} and the fan-out directories receive the client side of the pack and this directory
+         * receives the server side. Not stored in the configuration file.
+         */
+        @Nullable
+        public transient File serverOutput;
+        /**
+         * A local pack file or unpacked pack directory to install instead of a version downloaded from CurseForge,
+         * not stored in the configuration file.
+         */
+        @Nullable
+        public transient File packSource;
+        /**
+         * A local directory in the layout of the mod repository to copy mods from instead of downloading them, not stored
+         * in the configuration file.
+         */
+        @Nullable
+        public transient File modSource;
+        /**
+         * Limits the resources used for extracting, hashing and copying, see {@link ResourceGovernor}.
+         * Low-impact mode lowers the priority and provides defaults for the limits which are not set.
+         */
+        public boolean lowImpact;
+        /**
+         * The maximum number of worker threads for local work, 0 for the default.
+         */
+        public int workerThreads;
+        /**
+         * The maximum disk throughput in bytes per second, 0 for the default.
+         */
+        public long diskRate;
+        /**
+         * Only print the installation plan, not stored in the configuration file.
+         */
+        public transient boolean planOnly;
+        /**
+         * Only restore a snapshot, not stored in the configuration file.
+         */
+        public transient boolean rollback;
+        @Nullable
+        public transient String rollbackTarget;
+        /**
+         * Batch mode settings, not stored in the configuration file.
+         */
+        @Nullable
+        public transient File batchFile;
+        public transient int batchParallelism;
+        /**
+         * A private directory the targets of a fan-out installation copy the overrides into once, so they can link the
+         * read-only ones from it. Every override is copied if null.
+         */
+        @Nullable
+        public transient File linkedOverrides;
+        /**
+         * Minutes between checks for new versions in watch mode, 0 if not watching.
+         */
+        public transient int watchInterval;
+        /**
+         * The plan to install from and the file to export a plan to, not stored in the configuration file.
+         */
+        @Nullable
+        public transient File planFile;
+        @Nullable
+        public transient File exportPlan;
+        /**
+         * The offline bundles to write or install from, not stored in the configuration file.
+         */
+        @Nullable
+        public transient File exportBundle;
+        @Nullable
+        public transient File importBundle;
 
         public Configuration(@Nullable String projectSlug, @Nullable String gameVersion, @Nullable String projectVersion, @Nullable File output, @Nullable Mode mode, boolean server, @Nullable File tmpDirectory, boolean failDiscrepancies)
         {
@@ -367,6 +751,31 @@ public class CurseSync
             return new File(output, "cursesync-installation.json");
         }
 
+        /**
+         * Fills in the values missing from this configuration from an existing installation.
+         */
+        public void completeFrom(@Nonnull Installation installation)
+        {
+            if (projectSlug == null)
+                projectSlug = installation.projectSlug;
+            if (projectVersion == null)
+                projectVersion = installation.lastFile;
+            if (gameVersion == null)
+                gameVersion = installation.gameVersion;
+            if (overrideFilter == null)
+                overrideFilter = installation.overrideFilter;
+        }
+
+        /**
+         * Selects the project and version of a precomputed plan.
+         */
+        public void applyPlan(@Nonnull PlanFile plan)
+        {
+            projectSlug = plan.projectSlug;
+            gameVersion = plan.gameVersion;
+            projectVersion = plan.version.name;
+        }
+
         public int projectId()
         {
             if (projectSlug == null)
@@ -402,74 +811,45 @@ public class CurseSync
             log.log(level, "Temporary Files Directory: {}", tmpDirectory == null ? "n/a" : tmpDirectory.getAbsolutePath());
             log.log(level, "Installation mode: {}", mode == null ? "n/a" : mode.name().toLowerCase());
             log.log(level, "Server Mode: {}", server);
+            log.log(level, "Streamed Pack Extraction: {}", streamPack);
+            log.log(level, "Direct Pack Archive Access: {}", directArchive);
+            log.log(level, "Staged Installation: {}", staged);
+            log.log(level, "Snapshots To Keep: {}", snapshots);
+            log.log(level, "Optional Mods: {}", optionalMods == null ? OptionalMods.EAGER : optionalMods);
+            log.log(level, "Checksum Algorithm: {}", ChecksumAlgorithm.orDefault(checksumAlgorithm));
+            if (!OverrideFilter.isEmpty(overrideFilter))
+                log.log(level, "Override Filter: {}", overrideFilter.describe());
+            if (fanOut != null && !fanOut.isEmpty())
+                log.log(level, "Fan-out Directories: {}", fanOut);
+            if (serverOutput != null)
+                log.log(level, "Server Output Directory: {}", serverOutput.getAbsolutePath());
+            if (packSource != null)
+                log.log(level, "Pack Source: {}", packSource.getAbsolutePath());
+            if (modSource != null)
+                log.log(level, "Mod Source: {}", modSource.getAbsolutePath());
+            if (lowImpact || workerThreads > 0 || diskRate > 0)
+                log.log(level, "Resource Limits: {}", ResourceGovernor.of(this).describe());
         }
     }
 
-    private class GuiceModule extends AbstractModule
+    /**
+     * Creates a dependency injection context for installing with the given configuration, see {@link CurseSyncEngine#createContext}.
+     * In addition to the engine's bindings it provides the application and its interface.
+     */
+    @Nonnull
+    public DIContext createContext(@Nonnull Object root, @Nonnull Configuration config)
     {
-        private Installer installer;
-        private Installation installation;
-        private boolean injectedStrategy;
+        return engine.createContext(root, config, new ApplicationModule());
+    }
 
+    private class ApplicationModule extends AbstractModule
+    {
         @Override
         protected void configure()
         {
-            bind(DIContext.class).toInstance(context);
             bind(CurseSyncInterface.class).toProvider(() -> client);
-            bind(Configuration.class).toInstance(config);
-            bind(ExecutorService.class).toInstance(executor);
             bind(CurseSync.class).toInstance(CurseSync.this);
-            bind(HttpClient.class).toInstance(http);
-            bind(CurseAPI.class).toProvider(() -> api);
-            bind(Logger.class).toProvider(client::log);
             bind(Executor.class).annotatedWith(Names.named("UI")).toProvider(client::uiExecutor);
-            bind(Installer.class).toProvider(() ->
-            {
-                if (installer == null)
-                    installer = config.server ? new ServerInstaller() : new ClientInstaller();
-                return installer;
-            });
-            bind(FileStrategy.class).toProvider(() ->
-            {
-                if (config.mode == null)
-                    return null;
-                if (!injectedStrategy)
-                {
-                    context.injectMembers(config.mode.strategy);
-                    injectedStrategy = true;
-                }
-                return config.mode.strategy;
-            });
-            bind(Installation.class).toProvider(() ->
-            {
-                if (installation == null)
-                {
-                    File installationFile = config.installationFile();
-                    if (config.output == null || !installationFile.exists())
-                    {
-                        if (config.projectSlug == null || config.tmpDirectory == null || config.gameVersion == null)
-                            return null;
-                        return (installation =
-                                new Installation(config.projectId(), config.projectNameSlug(), config.gameVersion, config.server,
-                                        new File(config.tmpDirectory.getAbsoluteFile(), "mods/"), null, null, null, null));
-                    }
-                    try
-                    {
-                        return GSON.fromJson(new FileReader(installationFile), Installation.class);
-                    }
-                    catch (JsonParseException exception)
-                    {
-                        client.log().error("Failed to parse installation configuration file.", exception);
-                        return null;
-                    }
-                    catch (FileNotFoundException e)
-                    {
-                        // Shouldn't happen...
-                        return null;
-                    }
-                }
-                return installation;
-            });
             requestStaticInjection(GraphicalInterface.class);
         }
     }
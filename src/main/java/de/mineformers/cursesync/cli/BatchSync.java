@@ -0,0 +1,232 @@
+package de.mineformers.cursesync.cli;
+
+import com.gluonhq.ignite.DIContext;
+import com.google.common.base.Stopwatch;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.google.common.reflect.TypeToken;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.gson.JsonParseException;
+import de.mineformers.cursesync.CurseSync;
+import de.mineformers.cursesync.sync.mode.Mode;
+import de.mineformers.cursesync.util.FileTrees;
+import org.apache.logging.log4j.Logger;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+import java.util.stream.Collectors;
+
+/**
+ * Installs several targets, each described by its own {@link CurseSync.Configuration}, in a single process.
+ * Every target gets its own dependency injection context, so installations do not share any state except for the
+ * network client, the API caches, the pack cache, the download executor and the temporary directory (and with it the
+ * mod repository).
+ */
+public class BatchSync
+{
+    private final Logger log;
+    private final List<CurseSync.Configuration> targets;
+    private final int parallelism;
+    private final BiFunction<Object, CurseSync.Configuration, DIContext> contexts;
+
+    public BatchSync(@Nonnull Logger log, @Nonnull List<CurseSync.Configuration> targets, int parallelism,
+                     @Nonnull BiFunction<Object, CurseSync.Configuration, DIContext> contexts)
+    {
+        this.log = log;
+        this.targets = targets;
+        this.parallelism = Math.max(1, Math.min(parallelism, targets.size()));
+        this.contexts = contexts;
+    }
+
+    /**
+     * @return true if all targets were installed successfully
+     */
+    public boolean run()
+    {
+        log.info("Installing {} batch targets, {} at a time...", targets.size(), parallelism);
+        ExecutorService workers = Executors.newFixedThreadPool(parallelism, new ThreadFactoryBuilder()
+                .setNameFormat("batch-target-%d")
+                .setDaemon(true)
+                .build());
+        List<CompletableFuture<Result>> results = targets.stream()
+                .map(target -> CompletableFuture.supplyAsync(() -> install(target), workers))
+                .collect(Collectors.toList());
+        workers.shutdown();
+        log.info("============================================================================");
+        log.info("Batch summary:");
+        boolean success = true;
+        for (CompletableFuture<Result> future : results)
+        {
+            Result result = future.join();
+            log.info(" - {}: {} ({}s)", result.output, result.success ? "success" : "failure", result.seconds);
+            success &= result.success;
+        }
+        log.info("============================================================================");
+        targets.stream().map(t -> t.linkedOverrides).filter(Objects::nonNull).distinct().forEach(directory ->
+        {
+            try
+            {
+                FileTrees.deleteTree(directory.toPath());
+            }
+            catch (IOException e)
+            {
+                log.warn("Failed to delete linked overrides in '" + directory.getAbsolutePath() + "'.", e);
+            }
+        });
+        return success;
+    }
+
+    private Result install(CurseSync.Configuration target)
+    {
+        Stopwatch stopwatch = Stopwatch.createStarted();
+        boolean success;
+        try
+        {
+            CommandLineInterface client = new CommandLineInterface();
+            contexts.apply(client, target);
+            success = client.install();
+        }
+        catch (RuntimeException e)
+        {
+            log.error("Unexpected exception while installing batch target '" + target.output + "'!", e);
+            success = false;
+        }
+        return new Result(target.output, success, stopwatch.elapsed(TimeUnit.SECONDS));
+    }
+
+    /**
+     * Reads the targets of a batch file, filling in missing values from the given defaults.
+     *
+     * @return the targets or null if the file is invalid
+     */
+    @Nullable
+    public static List<CurseSync.Configuration> load(@Nonnull Logger log, @Nonnull File batchFile, @Nonnull CurseSync.Configuration defaults)
+    {
+        List<CurseSync.Configuration> targets;
+        try (Reader reader = new FileReader(batchFile))
+        {
+            targets = CurseSync.GSON.fromJson(reader, new TypeToken<List<CurseSync.Configuration>>()
+            {
+            }.getType());
+        }
+        catch (IOException | JsonParseException e)
+        {
+            log.error("Failed to read batch file '" + batchFile.getAbsolutePath() + "'!", e);
+            return null;
+        }
+        if (targets == null || targets.isEmpty())
+        {
+            log.error("Batch file '{}' does not contain any targets!", batchFile.getAbsolutePath());
+            return null;
+        }
+        Set<File> outputs = Sets.newHashSet();
+        List<CurseSync.Configuration> result = Lists.newArrayList();
+        for (CurseSync.Configuration target : targets)
+        {
+            if (target.output == null)
+            {
+                log.error("Batch target for project '{}' has no output directory!", target.projectSlug);
+                return null;
+            }
+            target.output = target.output.toPath().toAbsolutePath().normalize().toFile();
+            if (!outputs.add(target.output))
+            {
+                log.error("Output directory '{}' is used by more than one batch target!", target.output);
+                return null;
+            }
+            // All targets share the temporary directory, so the mod repository and pack cache are shared too
+            if (target.tmpDirectory == null)
+                target.tmpDirectory = defaults.tmpDirectory;
+            target.tmpDirectory = target.tmpDirectory == null ? null : target.tmpDirectory.toPath().toAbsolutePath().normalize().toFile();
+            if (target.mode == null)
+                target.mode = Mode.UPDATE;
+            target.planOnly = defaults.planOnly;
+            // Resource limits apply to the whole process, targets may only tighten them
+            target.lowImpact |= defaults.lowImpact;
+            if (target.workerThreads <= 0)
+                target.workerThreads = defaults.workerThreads;
+            if (target.diskRate <= 0)
+                target.diskRate = defaults.diskRate;
+            result.add(target);
+        }
+        return result;
+    }
+
+    /**
+     * Creates one target for the configuration's output directory and one for every fan-out directory.
+     * All of them install the same pack version. The overrides are copied into a private directory once and the
+     * read-only ones are hard linked from there instead of being copied for every target.
+     * <p>
+     * If the configuration has a server output directory, the other directories receive the client side and an
+     * additional target installs the server side into it. The pack, its override checksums and the mods both sides
+     * share are still only fetched once, since the targets run concurrently on the same caches and mod repository.
+     */
+    @Nonnull
+    public static List<CurseSync.Configuration> fanOut(@Nonnull CurseSync.Configuration config)
+    {
+        List<File> outputs = Lists.newArrayList();
+        outputs.add(config.output);
+        if (config.fanOut != null)
+            config.fanOut.forEach(f -> outputs.add(f.toPath().toAbsolutePath().normalize().toFile()));
+        List<File> distinct = outputs.stream().distinct().filter(f -> !f.equals(config.serverOutput)).collect(Collectors.toList());
+        List<CurseSync.Configuration> targets = Lists.newArrayList();
+        File linkedOverrides = distinct.size() > 1 && config.tmpDirectory != null ?
+                new File(config.tmpDirectory, "linked-overrides/" + UUID.randomUUID()) : null;
+        for (File output : distinct)
+        {
+            CurseSync.Configuration target = copy(config, output);
+            if (config.serverOutput != null)
+                target.server = false;
+            target.linkedOverrides = linkedOverrides;
+            targets.add(target);
+        }
+        if (config.serverOutput != null)
+        {
+            CurseSync.Configuration server = copy(config, config.serverOutput);
+            server.server = true;
+            targets.add(server);
+        }
+        return targets;
+    }
+
+    private static CurseSync.Configuration copy(CurseSync.Configuration config, File output)
+    {
+        CurseSync.Configuration target = CurseSync.GSON.fromJson(CurseSync.GSON.toJson(config), CurseSync.Configuration.class);
+        target.output = output;
+        target.fanOut = null;
+        target.serverOutput = null;
+        target.planOnly = config.planOnly;
+        target.planFile = config.planFile;
+        target.importBundle = config.importBundle;
+        target.packSource = config.packSource;
+        target.modSource = config.modSource;
+        return target;
+    }
+
+    private static class Result
+    {
+        final File output;
+        final boolean success;
+        final long seconds;
+
+        Result(File output, boolean success, long seconds)
+        {
+            this.output = output;
+            this.success = success;
+            this.seconds = seconds;
+        }
+    }
+}
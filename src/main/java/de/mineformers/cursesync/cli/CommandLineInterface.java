@@ -5,14 +5,21 @@ import com.google.inject.Inject;
 import de.mineformers.cursesync.CurseSync;
 import de.mineformers.cursesync.CurseSyncInterface;
 import de.mineformers.cursesync.sync.CurseAPI;
+import de.mineformers.cursesync.sync.ModPrefetcher;
+import de.mineformers.cursesync.sync.SnapshotStore;
 import de.mineformers.cursesync.sync.installer.Installer;
+import de.mineformers.cursesync.sync.installer.OfflineBundle;
+import de.mineformers.cursesync.sync.installer.PackSource;
+import de.mineformers.cursesync.sync.installer.UpdatePlan;
 import de.mineformers.cursesync.sync.model.CurseProject;
 import de.mineformers.cursesync.sync.model.Installation;
+import de.mineformers.cursesync.sync.model.PlanFile;
 import org.apache.logging.log4j.Level;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executor;
@@ -33,6 +40,8 @@ public class CommandLineInterface implements CurseSyncInterface
     private CurseAPI api;
     @Inject
     private CurseSync.Configuration config;
+    @Inject
+    private ModPrefetcher prefetcher;
 
     @Nonnull
     @Override
@@ -51,6 +60,42 @@ public class CommandLineInterface implements CurseSyncInterface
     @Override
     public void run()
     {
+        app.shutdown((config.rollback ? rollback() : install()) ? 0 : 1);
+    }
+
+    /**
+     * Runs a complete installation (or planning run) for the injected configuration.
+     *
+     * @return true if the installation was successful
+     */
+    public boolean install()
+    {
+        PlanFile resolved = null;
+        if (config.importBundle != null)
+        {
+            resolved = OfflineBundle.readPlan(log, config.importBundle);
+            if (resolved == null)
+                return false;
+            config.applyPlan(resolved);
+        }
+        else if (config.planFile != null)
+        {
+            resolved = Installer.loadPlan(log, config.planFile);
+            if (resolved == null)
+                return false;
+            config.applyPlan(resolved);
+        }
+        PackSource source = PackSource.of(config.packSource);
+        if (source.isLocal())
+        {
+            if (resolved != null)
+            {
+                log.error("A local pack source cannot be combined with a plan or bundle, aborting!");
+                return false;
+            }
+            if (!source.complete(log, config))
+                return false;
+        }
         if (!config.valid())
         {
             log.error("==================================================================================");
@@ -60,54 +105,123 @@ public class CommandLineInterface implements CurseSyncInterface
             log.error("Add the missing values to your configuration file or specify them via");
             log.error("command line arguments.");
             log.error("==================================================================================");
-            app.shutdown(1);
+            return false;
         }
         log.info("============================================================================");
         log.info("Starting CurseSync Command Line Client v{} with the following configuration:", CurseSync.VERSION);
-        if (config.installationFile().exists())
+        Installation installation = completeConfig();
+        if (resolved == null && !source.isLocal() && config.modSource == null && installation != null && installation.mods != null)
+            prefetcher.start(installation.mods);
+        // Exported plans always contain all overrides and hash the pack file, which is not kept when it is streamed
+        if (config.exportPlan != null || config.exportBundle != null)
+            config.overrideFilter = null;
+        if (config.exportPlan != null || config.exportBundle != null || config.importBundle != null)
+            config.streamPack = false;
+        if (config.importBundle != null)
         {
-            log.info("Existing installation in output directory found, added missing information...");
-            Installation installation = context.getInstance(Installation.class);
-            if (installation != null)
-            {
-                if (config.projectSlug == null)
-                    config.projectSlug = installation.projectSlug;
-                if (config.projectVersion == null)
-                    config.projectVersion = installation.lastFile;
-                if (config.gameVersion == null)
-                    config.gameVersion = installation.gameVersion;
-            }
+            Installation target = installation != null ? installation : context.getInstance(Installation.class);
+            if (target == null || config.tmpDirectory == null ||
+                    !OfflineBundle.unpack(log, config.importBundle, resolved, config.tmpDirectory, target.modRepository))
+                return false;
         }
         config.dump(log, Level.INFO);
         log.info("============================================================================");
         log.info("Validating configuration...");
         CurseProject project;
-        try
+        if (resolved != null)
         {
-            project = validateConfig().get();
-            if (project == null)
-            {
-                app.shutdown(1);
-                return;
-            }
+            log.info("Installing version '{}' from a precomputed plan.", resolved.version.name);
+            project = resolved.project();
         }
-        catch (InterruptedException | ExecutionException e)
+        else if (source.isLocal())
         {
-            log.error("Exception while trying to validate configuration, shutting down!", e);
-            app.shutdown(1);
-            return;
+            log.info("Installing local pack from {}.", source);
+            project = source.project(config);
+        }
+        else
+        {
+            try
+            {
+                project = validateConfig().get();
+                if (project == null)
+                {
+                    return false;
+                }
+            }
+            catch (InterruptedException | ExecutionException e)
+            {
+                log.error("Exception while trying to validate configuration, shutting down!", e);
+                return false;
+            }
         }
         log.info("Configuration appears to be valid, beginning execution...");
         log.info("Starting {} installation in mode '{}'...", config.server ? "server" : "client", config.mode);
         Installer installer = context.getInstance(Installer.class);
         context.injectMembers(installer);
-        installer.init(project);
+        if (resolved != null)
+            installer.usePlan(resolved);
+        if (!installer.init(project))
+            return false;
+        if (config.exportBundle != null)
+            return installer.exportBundle(config.exportBundle);
+        if (config.exportPlan != null)
+        {
+            PlanFile exported = installer.exportPlan();
+            return exported != null && Installer.savePlan(log, exported, config.exportPlan);
+        }
+        if (config.planOnly)
+        {
+            UpdatePlan plan = installer.plan();
+            if (plan == null)
+            {
+                log.error("Could not determine installation plan!");
+                return false;
+            }
+            plan.dump(log);
+            return true;
+        }
         if (!installer.execute())
+            return false;
+        if (installer.hasDeferredMods())
+        {
+            log.info("The installation is complete and can already be used, downloading optional mods now...");
+            installer.fetchDeferredMods();
+        }
+        return true;
+    }
+
+    /**
+     * Fills in the configuration values missing from an existing installation in the output directory.
+     *
+     * @return the existing installation or null if there is none
+     */
+    @Nullable
+    public Installation completeConfig()
+    {
+        if (!config.installationFile().exists())
+            return null;
+        log.info("Existing installation in output directory found, added missing information...");
+        Installation installation = context.getInstance(Installation.class);
+        if (installation != null)
+            config.completeFrom(installation);
+        return installation;
+    }
+
+    private boolean rollback()
+    {
+        if (config.output == null)
+        {
+            log.error("No output directory specified, nothing to roll back!");
+            return false;
+        }
+        SnapshotStore snapshots = new SnapshotStore(log, config.output);
+        String name = snapshots.find(config.rollbackTarget, config.installationFile().getName());
+        if (name == null)
         {
-            app.shutdown(1);
-            return;
+            log.error("Could not find a matching snapshot to roll back to, available snapshots: {}", snapshots.list());
+            return false;
         }
-        app.shutdown(0);
+        return snapshots.restore(name, config.installationFile().getName());
     }
 
     private CompletableFuture<CurseProject> validateConfig()
@@ -0,0 +1,123 @@
+package de.mineformers.cursesync.cli;
+
+import com.gluonhq.ignite.DIContext;
+import com.google.common.collect.Maps;
+import de.mineformers.cursesync.CurseSync;
+import de.mineformers.cursesync.sync.CurseAPI;
+import de.mineformers.cursesync.sync.installer.Installer;
+import de.mineformers.cursesync.sync.model.CurseProject;
+import de.mineformers.cursesync.sync.model.ProjectVersion;
+import org.apache.logging.log4j.Logger;
+
+import javax.annotation.Nonnull;
+import java.io.File;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+
+/**
+ * Periodically checks installations for new versions of their pack and prefetches them into the temporary directory
+ * and mod repository, so a later installation barely needs the network anymore. The output directories are never touched.
+ * <p>
+ * The modpack is polled with conditional requests, so an unchanged pack costs a single small response.
+ * Prefetching happens for one installation at a time on a minimum priority thread.
+ */
+public class WatchDaemon
+{
+    private final Logger log;
+    private final CurseAPI api;
+    private final List<CurseSync.Configuration> targets;
+    private final long intervalMinutes;
+    private final BiFunction<Object, CurseSync.Configuration, DIContext> contexts;
+    private final Map<File, Integer> prefetched = Maps.newHashMap();
+
+    public WatchDaemon(@Nonnull Logger log, @Nonnull CurseAPI api, @Nonnull List<CurseSync.Configuration> targets, long intervalMinutes,
+                       @Nonnull BiFunction<Object, CurseSync.Configuration, DIContext> contexts)
+    {
+        this.log = log;
+        this.api = api;
+        this.targets = targets;
+        this.intervalMinutes = Math.max(1, intervalMinutes);
+        this.contexts = contexts;
+    }
+
+    /**
+     * Watches the installations until the calling thread is interrupted.
+     */
+    public void run()
+    {
+        Thread worker = new Thread(this::watch, "watch-daemon");
+        worker.setPriority(Thread.MIN_PRIORITY);
+        worker.start();
+        try
+        {
+            worker.join();
+        }
+        catch (InterruptedException e)
+        {
+            worker.interrupt();
+        }
+    }
+
+    private void watch()
+    {
+        log.info("Watching {} installations for new pack versions every {} minutes...", targets.size(), intervalMinutes);
+        while (!Thread.currentThread().isInterrupted())
+        {
+            for (CurseSync.Configuration target : targets)
+            {
+                try
+                {
+                    poll(target);
+                }
+                catch (RuntimeException e)
+                {
+                    log.error("Unexpected exception while checking '" + target.output + "' for updates!", e);
+                }
+            }
+            try
+            {
+                TimeUnit.MINUTES.sleep(intervalMinutes);
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void poll(CurseSync.Configuration target)
+    {
+        CommandLineInterface client = new CommandLineInterface();
+        DIContext context = contexts.apply(client, target);
+        client.completeConfig();
+        if (target.projectSlug == null || target.gameVersion == null)
+        {
+            log.warn("Watched installation '{}' has no project or game version, skipping it.", target.output);
+            return;
+        }
+        CurseProject project = api.pollModpack(target.projectSlug);
+        if (project == null || project.versions == null || !project.versions.containsKey(target.gameVersion))
+        {
+            log.warn("Could not get versions of '{}' for game version '{}'.", target.projectSlug, target.gameVersion);
+            return;
+        }
+        ProjectVersion version = Installer.selectVersion(project, target);
+        if (version == null || Objects.equals(prefetched.get(target.output), version.id))
+            return;
+        log.info("Found version '{}' of '{}' for '{}', prefetching it...", version.name, target.projectSlug, target.output);
+        Installer installer = context.getInstance(Installer.class);
+        context.injectMembers(installer);
+        if (installer.init(project) && installer.prefetch())
+        {
+            prefetched.put(target.output, version.id);
+            log.info("Version '{}' of '{}' is ready to be installed.", version.name, target.projectSlug);
+        }
+        else
+        {
+            log.warn("Failed to prefetch version '{}' of '{}', retrying with the next check.", version.name, target.projectSlug);
+        }
+    }
+}
@@ -0,0 +1,455 @@
+package de.mineformers.cursesync.embed;
+
+import com.gluonhq.ignite.DIContext;
+import com.gluonhq.ignite.guice.GuiceContext;
+import com.google.common.base.Stopwatch;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.gson.JsonParseException;
+import com.google.inject.AbstractModule;
+import com.google.inject.Guice;
+import com.google.inject.Module;
+import de.mineformers.cursesync.CurseSync;
+import de.mineformers.cursesync.sync.ChecksumIndex;
+import de.mineformers.cursesync.sync.CurseAPI;
+import de.mineformers.cursesync.sync.ModPrefetcher;
+import de.mineformers.cursesync.sync.ResourceGovernor;
+import de.mineformers.cursesync.sync.TransferStats;
+import de.mineformers.cursesync.sync.installer.*;
+import de.mineformers.cursesync.sync.mode.FileStrategy;
+import de.mineformers.cursesync.sync.model.CurseProject;
+import de.mineformers.cursesync.sync.model.Installation;
+import de.mineformers.cursesync.sync.model.PlanFile;
+import de.mineformers.cursesync.sync.model.ProjectVersion;
+import de.mineformers.cursesync.sync.progress.ProgressEvent;
+import de.mineformers.cursesync.sync.progress.ProgressPublisher;
+import de.mineformers.cursesync.util.SafeRedirectStrategy;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.impl.client.BasicCookieStore;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.*;
+
+/**
+ * Entry point for using CurseSync as a library.
+ * An engine owns everything which can be shared between installations: the HTTP client, the API caches, the pack cache,
+ * the download executor and the transfer statistics. Installations are isolated from each other, so any number of them
+ * may run concurrently, as long as they use different output directories.
+ * <p>
+ * Engines are thread-safe. They should be {@link #close() closed} once they are not needed anymore.
+ */
+public class CurseSyncEngine implements AutoCloseable
+{
+    private final Logger log;
+    private final ExecutorService executor;
+    private final ExecutorService requests;
+    private final HttpClient http;
+    private final CurseAPI api;
+    private final TransferStats stats;
+    private final PackCache packCache;
+    private final Set<File> activeOutputs = ConcurrentHashMap.newKeySet();
+    private final Map<String, ResourceGovernor> governors = Maps.newConcurrentMap();
+
+    private CurseSyncEngine(Builder builder)
+    {
+        this.log = builder.log != null ? builder.log : LogManager.getLogger(CurseSyncEngine.class);
+        this.stats = builder.stats != null ? builder.stats : new TransferStats();
+        this.executor = Executors.newFixedThreadPool(builder.downloadThreads);
+        this.requests = Executors.newCachedThreadPool(new ThreadFactoryBuilder()
+                .setNameFormat("install-request-%d")
+                .setDaemon(true)
+                .build());
+        this.packCache = new PackCache(log);
+        BasicCookieStore store = new BasicCookieStore();
+        RequestConfig requestConfig = RequestConfig.custom()
+                .setCircularRedirectsAllowed(true)
+                .setConnectionRequestTimeout(30000)
+                .setConnectTimeout(30000)
+                .setSocketTimeout(30000)
+                .build();
+        PoolingHttpClientConnectionManager cm = new PoolingHttpClientConnectionManager();
+        cm.setMaxTotal(builder.maxConnections);
+        this.http = HttpClientBuilder.create()
+                .setUserAgent("CurseSync")
+                .setDefaultCookieStore(store)
+                .setDefaultRequestConfig(requestConfig)
+                .setRedirectStrategy(SafeRedirectStrategy.INSTANCE)
+                .setConnectionManager(cm)
+                .build();
+        this.api = new CurseAPI();
+        Guice.createInjector(new SharedModule()).injectMembers(api);
+    }
+
+    @Nonnull
+    public static Builder builder()
+    {
+        return new Builder();
+    }
+
+    @Nonnull
+    public CurseAPI api()
+    {
+        return api;
+    }
+
+    @Nonnull
+    public ExecutorService executor()
+    {
+        return executor;
+    }
+
+    /**
+     * @return the governor enforcing the resource limits of the given configuration, shared by all installations with
+     * the same limits
+     */
+    @Nonnull
+    public ResourceGovernor governor(@Nonnull CurseSync.Configuration config)
+    {
+        ResourceGovernor governor = ResourceGovernor.of(config);
+        return governors.computeIfAbsent(governor.describe(), key -> governor);
+    }
+
+    /**
+     * Creates a dependency injection context for installing with the given configuration.
+     * Everything tied to a single installation is private to the context, everything else is shared through the engine.
+     *
+     * @param modules additional bindings for the context
+     */
+    @Nonnull
+    public DIContext createContext(@Nonnull Object root, @Nonnull CurseSync.Configuration config, @Nonnull Module... modules)
+    {
+        return createContext(root, config, new ProgressPublisher(), modules);
+    }
+
+    private DIContext createContext(Object root, CurseSync.Configuration config, ProgressPublisher progress, Module... modules)
+    {
+        InstallModule module = new InstallModule(config, progress);
+        List<Module> allModules = Lists.newArrayList(new SharedModule(), module);
+        allModules.addAll(ImmutableList.copyOf(modules));
+        GuiceContext context = new GuiceContext(root, () -> allModules);
+        module.context = context;
+        context.init();
+        return context;
+    }
+
+    /**
+     * Starts an installation (or a planning run) in the background.
+     * The returned future never completes exceptionally, failures are described by the report instead.
+     */
+    @Nonnull
+    public CompletableFuture<InstallReport> install(@Nonnull InstallRequest request)
+    {
+        return install(request, null);
+    }
+
+    /**
+     * Starts an installation like {@link #install(InstallRequest)}, reporting its progress to the given subscriber.
+     * The subscriber is completed once the installation is done, before the returned future completes.
+     */
+    @Nonnull
+    public CompletableFuture<InstallReport> install(@Nonnull InstallRequest request, @Nullable ProgressPublisher.Subscriber subscriber)
+    {
+        return CompletableFuture.supplyAsync(() ->
+        {
+            try (ProgressPublisher progress = new ProgressPublisher())
+            {
+                if (subscriber != null)
+                    progress.subscribe(subscriber);
+                InstallReport report = run(request.toConfiguration(), progress);
+                if (!report.success)
+                    progress.publish(new ProgressEvent.Failure(null, report.error != null ? report.error : "The installation failed", null));
+                return report;
+            }
+        }, requests);
+    }
+
+    private InstallReport run(CurseSync.Configuration config, ProgressPublisher progress)
+    {
+        Stopwatch stopwatch = Stopwatch.createStarted();
+        File output = config.output;
+        if (output == null)
+            return InstallReport.failure(null, "No output directory specified", stopwatch);
+        if (!activeOutputs.add(output))
+            return InstallReport.failure(output, "Another installation into the output directory is already running", stopwatch);
+        boolean release = true;
+        try
+        {
+            DIContext context = createContext(this, config, progress);
+            PlanFile resolved = null;
+            if (config.planFile != null)
+            {
+                resolved = Installer.loadPlan(log, config.planFile);
+                if (resolved == null)
+                    return InstallReport.failure(output, "The plan file could not be read", stopwatch);
+                config.applyPlan(resolved);
+            }
+            PackSource source = PackSource.of(config.packSource);
+            if (source.isLocal())
+            {
+                if (resolved != null)
+                    return InstallReport.failure(output, "A local pack source cannot be combined with a plan file", stopwatch);
+                if (!source.complete(log, config))
+                    return InstallReport.failure(output, "The manifest of the local pack could not be read", stopwatch);
+            }
+            if (config.installationFile().exists())
+            {
+                Installation installation = context.getInstance(Installation.class);
+                if (installation != null)
+                    config.completeFrom(installation);
+            }
+            if (!config.valid())
+                return InstallReport.failure(output, "The configuration is missing values", stopwatch);
+            CurseProject project = resolved != null ? resolved.project() : source.isLocal() ? source.project(config) : api.getModpack(config.projectSlug);
+            if (project == null || project.title == null)
+                return InstallReport.failure(output, "The project '" + config.projectSlug + "' does not exist", stopwatch);
+            if (!project.versions.containsKey(config.gameVersion))
+                return InstallReport.failure(output, "The pack does not exist for game version '" + config.gameVersion + "'", stopwatch);
+            ProjectVersion version = Installer.selectVersion(project, config);
+            if (version == null)
+                return InstallReport.failure(output, "The pack has no version matching '" + config.projectVersion + "'", stopwatch);
+            Installer installer = context.getInstance(Installer.class);
+            context.injectMembers(installer);
+            if (resolved != null)
+                installer.usePlan(resolved);
+            if (!installer.init(project))
+                return InstallReport.failure(output, "The pack has no version matching '" + config.projectVersion + "'", stopwatch);
+            if (config.planOnly)
+            {
+                UpdatePlan plan = installer.plan();
+                return new InstallReport(output, plan != null, version.name, installer.stepResults(), plan,
+                        plan == null ? "Could not determine installation plan" : null, stopwatch.elapsed(TimeUnit.MILLISECONDS));
+            }
+            boolean success = installer.execute();
+            CompletableFuture<Boolean> deferredMods = null;
+            if (success && installer.hasDeferredMods())
+            {
+                // The output directory is released once the optional mods are in place
+                deferredMods = CompletableFuture.supplyAsync(installer::fetchDeferredMods, requests)
+                        .whenComplete((result, e) -> activeOutputs.remove(output));
+                release = false;
+            }
+            return new InstallReport(output, success, version.name, installer.stepResults(), null,
+                    success ? null : "The installation failed, see the log for details", stopwatch.elapsed(TimeUnit.MILLISECONDS), deferredMods);
+        }
+        catch (RuntimeException e)
+        {
+            log.error("Unexpected exception while installing into '" + output + "'!", e);
+            return InstallReport.failure(output, e.toString(), stopwatch);
+        }
+        finally
+        {
+            governor(config).report(log);
+            if (release)
+                activeOutputs.remove(output);
+        }
+    }
+
+    /**
+     * Stops all background work, waiting at most a second for running downloads.
+     */
+    @Override
+    public void close()
+    {
+        requests.shutdownNow();
+        executor.shutdown();
+        try
+        {
+            executor.awaitTermination(1, TimeUnit.SECONDS);
+        }
+        catch (InterruptedException e)
+        {
+            log.error("Could not terminate all running asynchronous operations within 1s, forcing a shutdown...", e);
+        }
+        executor.shutdownNow();
+        if (http instanceof CloseableHttpClient)
+        {
+            try
+            {
+                ((CloseableHttpClient) http).close();
+            }
+            catch (IOException e)
+            {
+                log.warn("Failed to close HTTP client.", e);
+            }
+        }
+    }
+
+    public static class Builder
+    {
+        private Logger log;
+        private TransferStats stats;
+        private int downloadThreads = 10;
+        private int maxConnections = 20;
+
+        private Builder()
+        {
+        }
+
+        @Nonnull
+        public Builder logger(@Nonnull Logger log)
+        {
+            this.log = log;
+            return this;
+        }
+
+        /**
+         * Statistics to record downloads in, e.g. ones loaded from an earlier run.
+         */
+        @Nonnull
+        public Builder stats(@Nonnull TransferStats stats)
+        {
+            this.stats = stats;
+            return this;
+        }
+
+        /**
+         * The number of downloads running at the same time across all installations, defaults to 10.
+         */
+        @Nonnull
+        public Builder downloadThreads(int downloadThreads)
+        {
+            this.downloadThreads = Math.max(1, downloadThreads);
+            return this;
+        }
+
+        /**
+         * The maximum number of pooled HTTP connections, defaults to 20.
+         */
+        @Nonnull
+        public Builder maxConnections(int maxConnections)
+        {
+            this.maxConnections = Math.max(1, maxConnections);
+            return this;
+        }
+
+        @Nonnull
+        public CurseSyncEngine build()
+        {
+            return new CurseSyncEngine(this);
+        }
+    }
+
+    private class SharedModule extends AbstractModule
+    {
+        @Override
+        protected void configure()
+        {
+            bind(ExecutorService.class).toInstance(executor);
+            bind(HttpClient.class).toInstance(http);
+            bind(CurseAPI.class).toProvider(() -> api);
+            bind(TransferStats.class).toInstance(stats);
+            bind(PackCache.class).toInstance(packCache);
+            bind(Logger.class).toInstance(log);
+        }
+    }
+
+    private class InstallModule extends AbstractModule
+    {
+        private final CurseSync.Configuration config;
+        private final ProgressPublisher progress;
+        private DIContext context;
+        private Installer installer;
+        private Installation installation;
+        private FileStrategy strategy;
+        private ModPrefetcher prefetcher;
+        private ChecksumIndex checksumIndex;
+
+        private InstallModule(CurseSync.Configuration config, ProgressPublisher progress)
+        {
+            this.config = config;
+            this.progress = progress;
+        }
+
+        @Override
+        protected void configure()
+        {
+            bind(DIContext.class).toProvider(() -> context);
+            bind(CurseSync.Configuration.class).toInstance(config);
+            bind(ProgressPublisher.class).toInstance(progress);
+            bind(ResourceGovernor.class).toInstance(governor(config));
+            bind(ModPrefetcher.class).toProvider(() ->
+            {
+                if (prefetcher == null)
+                {
+                    prefetcher = new ModPrefetcher();
+                    context.injectMembers(prefetcher);
+                }
+                return prefetcher;
+            });
+            bind(ChecksumIndex.class).toProvider(() ->
+            {
+                if (checksumIndex == null)
+                {
+                    checksumIndex = new ChecksumIndex();
+                    context.injectMembers(checksumIndex);
+                }
+                return checksumIndex;
+            });
+            bind(Installer.class).toProvider(() ->
+            {
+                if (installer == null)
+                    installer = config.server ? new ServerInstaller() : new ClientInstaller();
+                return installer;
+            });
+            bind(FileStrategy.class).toProvider(() ->
+            {
+                if (config.mode == null)
+                    return null;
+                if (strategy == null)
+                {
+                    strategy = config.mode.createStrategy();
+                    context.injectMembers(strategy);
+                }
+                return strategy;
+            });
+            bind(Installation.class).toProvider(this::loadInstallation);
+        }
+
+        @Nullable
+        private Installation loadInstallation()
+        {
+            if (installation == null)
+            {
+                File installationFile = config.installationFile();
+                if (config.output == null || !installationFile.exists())
+                {
+                    if (config.projectSlug == null || config.tmpDirectory == null || config.gameVersion == null)
+                        return null;
+                    return (installation =
+                            new Installation(config.projectId(), config.projectNameSlug(), config.gameVersion, config.server,
+                                    new File(config.tmpDirectory.getAbsoluteFile(), "mods/"), null, null, null, null));
+                }
+                try (FileReader reader = new FileReader(installationFile))
+                {
+                    return CurseSync.GSON.fromJson(reader, Installation.class);
+                }
+                catch (JsonParseException exception)
+                {
+                    log.error("Failed to parse installation configuration file.", exception);
+                    return null;
+                }
+                catch (IOException e)
+                {
+                    // Shouldn't happen...
+                    return null;
+                }
+            }
+            return installation;
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package de.mineformers.cursesync.embed;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Stopwatch;
+import com.google.common.collect.ImmutableMap;
+import de.mineformers.cursesync.sync.installer.InstallGraph;
+import de.mineformers.cursesync.sync.installer.UpdatePlan;
+
+import javax.annotation.Nullable;
+import java.io.File;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The outcome of an installation started through {@link CurseSyncEngine}.
+ */
+public class InstallReport
+{
+    @Nullable
+    public final File output;
+    public final boolean success;
+    /**
+     * The name of the installed pack version or null if it could not be determined.
+     */
+    @Nullable
+    public final String version;
+    /**
+     * The result of every executed installation step, in declaration order.
+     */
+    public final Map<String, InstallGraph.State> steps;
+    /**
+     * The installation plan if only planning was requested.
+     */
+    @Nullable
+    public final UpdatePlan plan;
+    @Nullable
+    public final String error;
+    public final long millis;
+    /**
+     * Completes with true once all deferred optional mods were downloaded and installed, null if there are none.
+     * The output directory stays reserved for this installation until then.
+     */
+    @Nullable
+    public final CompletableFuture<Boolean> deferredMods;
+
+    public InstallReport(@Nullable File output, boolean success, @Nullable String version, Map<String, InstallGraph.State> steps,
+                         @Nullable UpdatePlan plan, @Nullable String error, long millis)
+    {
+        this(output, success, version, steps, plan, error, millis, null);
+    }
+
+    public InstallReport(@Nullable File output, boolean success, @Nullable String version, Map<String, InstallGraph.State> steps,
+                         @Nullable UpdatePlan plan, @Nullable String error, long millis, @Nullable CompletableFuture<Boolean> deferredMods)
+    {
+        this.output = output;
+        this.success = success;
+        this.version = version;
+        this.steps = ImmutableMap.copyOf(steps);
+        this.plan = plan;
+        this.error = error;
+        this.millis = millis;
+        this.deferredMods = deferredMods;
+    }
+
+    static InstallReport failure(@Nullable File output, String error, Stopwatch stopwatch)
+    {
+        return new InstallReport(output, false, null, ImmutableMap.of(), null, error, stopwatch.elapsed(TimeUnit.MILLISECONDS));
+    }
+
+    @Override
+    public String toString()
+    {
+        return MoreObjects.toStringHelper(this)
+                .add("output", output)
+                .add("success", success)
+                .add("version", version)
+                .add("steps", steps)
+                .add("error", error)
+                .add("millis", millis)
+                .toString();
+    }
+}
@@ -0,0 +1,320 @@
+package de.mineformers.cursesync.embed;
+
+import de.mineformers.cursesync.CurseSync;
+import de.mineformers.cursesync.sync.installer.OptionalMods;
+import de.mineformers.cursesync.sync.mode.Mode;
+import de.mineformers.cursesync.sync.model.ChecksumAlgorithm;
+import de.mineformers.cursesync.sync.model.OverrideFilter;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.File;
+
+/**
+ * Describes a single installation for {@link CurseSyncEngine#install(InstallRequest)}.
+ * Values which are not specified are taken from an existing installation in the output directory, if there is one.
+ * Requests are immutable and may be reused.
+ */
+public class InstallRequest
+{
+    private final File output;
+    private final String projectSlug;
+    private final String gameVersion;
+    private final String projectVersion;
+    private final Mode mode;
+    private final boolean server;
+    private final File tmpDirectory;
+    private final boolean failDiscrepancies;
+    private final boolean streamPack;
+    private final boolean directArchive;
+    private final boolean staged;
+    private final int snapshots;
+    private final boolean planOnly;
+    private final OptionalMods optionalMods;
+    private final ChecksumAlgorithm checksumAlgorithm;
+    private final OverrideFilter overrideFilter;
+    private final File planFile;
+    private final File packSource;
+    private final File modSource;
+    private final boolean lowImpact;
+    private final int workerThreads;
+    private final long diskRate;
+
+    private InstallRequest(Builder builder)
+    {
+        this.output = builder.output;
+        this.projectSlug = builder.projectSlug;
+        this.gameVersion = builder.gameVersion;
+        this.projectVersion = builder.projectVersion;
+        this.mode = builder.mode;
+        this.server = builder.server;
+        this.tmpDirectory = builder.tmpDirectory;
+        this.failDiscrepancies = builder.failDiscrepancies;
+        this.streamPack = builder.streamPack;
+        this.directArchive = builder.directArchive;
+        this.staged = builder.staged;
+        this.snapshots = builder.snapshots;
+        this.planOnly = builder.planOnly;
+        this.optionalMods = builder.optionalMods;
+        this.checksumAlgorithm = builder.checksumAlgorithm;
+        this.overrideFilter = builder.overrideFilter;
+        this.planFile = builder.planFile;
+        this.packSource = builder.packSource;
+        this.modSource = builder.modSource;
+        this.lowImpact = builder.lowImpact;
+        this.workerThreads = builder.workerThreads;
+        this.diskRate = builder.diskRate;
+    }
+
+    @Nonnull
+    public static Builder builder(@Nonnull File output)
+    {
+        return new Builder(output);
+    }
+
+    /**
+     * @return a new configuration for a single installation run
+     */
+    @Nonnull
+    CurseSync.Configuration toConfiguration()
+    {
+        CurseSync.Configuration config = new CurseSync.Configuration(projectSlug, gameVersion, projectVersion, output, mode, server, tmpDirectory, failDiscrepancies);
+        config.streamPack = streamPack;
+        config.directArchive = directArchive;
+        config.staged = staged;
+        config.snapshots = snapshots;
+        config.planOnly = planOnly;
+        config.optionalMods = optionalMods;
+        config.checksumAlgorithm = checksumAlgorithm;
+        config.overrideFilter = overrideFilter;
+        config.planFile = planFile;
+        config.packSource = packSource;
+        config.modSource = modSource;
+        config.lowImpact = lowImpact;
+        config.workerThreads = workerThreads;
+        config.diskRate = diskRate;
+        return config;
+    }
+
+    public static class Builder
+    {
+        private final File output;
+        private String projectSlug;
+        private String gameVersion;
+        private String projectVersion;
+        private Mode mode = Mode.UPDATE;
+        private boolean server;
+        private File tmpDirectory;
+        private boolean failDiscrepancies;
+        private boolean streamPack;
+        private boolean directArchive;
+        private boolean staged;
+        private int snapshots;
+        private boolean planOnly;
+        private OptionalMods optionalMods = OptionalMods.EAGER;
+        private ChecksumAlgorithm checksumAlgorithm = ChecksumAlgorithm.DEFAULT;
+        private OverrideFilter overrideFilter;
+        private File planFile;
+        private File packSource;
+        private File modSource;
+        private boolean lowImpact;
+        private int workerThreads;
+        private long diskRate;
+
+        private Builder(File output)
+        {
+            this.output = output;
+        }
+
+        @Nonnull
+        public Builder project(@Nullable String projectSlug)
+        {
+            this.projectSlug = projectSlug;
+            return this;
+        }
+
+        @Nonnull
+        public Builder gameVersion(@Nullable String gameVersion)
+        {
+            this.gameVersion = gameVersion;
+            return this;
+        }
+
+        @Nonnull
+        public Builder projectVersion(@Nullable String projectVersion)
+        {
+            this.projectVersion = projectVersion;
+            return this;
+        }
+
+        @Nonnull
+        public Builder mode(@Nonnull Mode mode)
+        {
+            this.mode = mode;
+            return this;
+        }
+
+        @Nonnull
+        public Builder server(boolean server)
+        {
+            this.server = server;
+            return this;
+        }
+
+        /**
+         * The temporary directory, which also holds the mod repository. Installations sharing it share downloads.
+         */
+        @Nonnull
+        public Builder tmpDirectory(@Nullable File tmpDirectory)
+        {
+            this.tmpDirectory = tmpDirectory;
+            return this;
+        }
+
+        @Nonnull
+        public Builder failDiscrepancies(boolean failDiscrepancies)
+        {
+            this.failDiscrepancies = failDiscrepancies;
+            return this;
+        }
+
+        @Nonnull
+        public Builder streamPack(boolean streamPack)
+        {
+            this.streamPack = streamPack;
+            return this;
+        }
+
+        @Nonnull
+        public Builder directArchive(boolean directArchive)
+        {
+            this.directArchive = directArchive;
+            return this;
+        }
+
+        @Nonnull
+        public Builder staged(boolean staged)
+        {
+            this.staged = staged;
+            return this;
+        }
+
+        @Nonnull
+        public Builder snapshots(int snapshots)
+        {
+            this.snapshots = snapshots;
+            return this;
+        }
+
+        /**
+         * Only determine the installation plan instead of installing, the report will contain it.
+         */
+        @Nonnull
+        public Builder planOnly(boolean planOnly)
+        {
+            this.planOnly = planOnly;
+            return this;
+        }
+
+        /**
+         * With {@link OptionalMods#DEFERRED}, the report is available as soon as the installation is usable and
+         * {@link InstallReport#deferredMods} completes once the optional mods were added.
+         */
+        @Nonnull
+        public Builder optionalMods(@Nonnull OptionalMods optionalMods)
+        {
+            this.optionalMods = optionalMods;
+            return this;
+        }
+
+        /**
+         * Existing installations tracked with another algorithm switch to this one with the installation.
+         */
+        @Nonnull
+        public Builder checksumAlgorithm(@Nonnull ChecksumAlgorithm checksumAlgorithm)
+        {
+            this.checksumAlgorithm = checksumAlgorithm;
+            return this;
+        }
+
+        /**
+         * Only installs the override files selected by the filter, taken from an existing installation if not specified.
+         */
+        @Nonnull
+        public Builder overrideFilter(@Nullable OverrideFilter overrideFilter)
+        {
+            this.overrideFilter = overrideFilter;
+            return this;
+        }
+
+        /**
+         * Installs the version of a plan file exported by the command line client, without using the Curse API.
+         * The plan's project and version take precedence over the ones of the request.
+         */
+        @Nonnull
+        public Builder planFile(@Nullable File planFile)
+        {
+            this.planFile = planFile;
+            return this;
+        }
+
+        /**
+         * Installs a local pack file or unpacked pack directory instead of downloading the pack from CurseForge.
+         * Project and version may be omitted, the game version is read from the pack's manifest if not specified.
+         */
+        @Nonnull
+        public Builder packSource(@Nullable File packSource)
+        {
+            this.packSource = packSource;
+            return this;
+        }
+
+        /**
+         * Copies mods from a local directory in the layout of the mod repository instead of downloading them.
+         */
+        @Nonnull
+        public Builder modSource(@Nullable File modSource)
+        {
+            this.modSource = modSource;
+            return this;
+        }
+
+        /**
+         * Lowers the priority of the installation's worker threads and provides defaults for the resource limits
+         * which are not set, see {@link de.mineformers.cursesync.sync.ResourceGovernor}.
+         */
+        @Nonnull
+        public Builder lowImpact(boolean lowImpact)
+        {
+            this.lowImpact = lowImpact;
+            return this;
+        }
+
+        /**
+         * The maximum number of threads used for extracting and hashing, 0 for the default.
+         */
+        @Nonnull
+        public Builder workerThreads(int workerThreads)
+        {
+            this.workerThreads = Math.max(0, workerThreads);
+            return this;
+        }
+
+        /**
+         * The maximum number of bytes per second read and written while hashing, extracting and copying, 0 for the default.
+         * Installations with the same limits share this budget.
+         */
+        @Nonnull
+        public Builder diskRate(long diskRate)
+        {
+            this.diskRate = Math.max(0, diskRate);
+            return this;
+        }
+
+        @Nonnull
+        public InstallRequest build()
+        {
+            return new InstallRequest(this);
+        }
+    }
+}
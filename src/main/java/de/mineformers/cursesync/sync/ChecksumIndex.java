@@ -0,0 +1,196 @@
+package de.mineformers.cursesync.sync;
+
+import com.google.common.collect.Maps;
+import com.google.common.hash.HashCode;
+import com.google.gson.JsonParseException;
+import com.google.gson.stream.JsonWriter;
+import com.google.inject.Inject;
+import de.mineformers.cursesync.CurseSync;
+import de.mineformers.cursesync.sync.model.ChecksumAlgorithm;
+import de.mineformers.cursesync.util.FileTrees;
+import org.apache.logging.log4j.Logger;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.*;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+
+/**
+ * Remembers the checksums of files together with their size, modification time and, where the file system provides
+ * one, their inode. A file whose metadata did not change is not hashed again, neither later in the same run nor in
+ * later runs, since the index is stored next to the installation file.
+ * <p>
+ * Files inside the output directory are indexed by their relative path, so the index stays valid when a staged
+ * installation replaces the output directory. Files modified shortly before they were hashed are only remembered for
+ * the current run, since another modification within the resolution of the modification time would go unnoticed.
+ * Files outside of the default file system, e.g. inside of pack archives, are never indexed.
+ * <p>
+ * Every entry records the algorithm of its checksum, a lookup with another algorithm hashes the file again.
+ */
+public class ChecksumIndex
+{
+    public static final String FILE_NAME = "cursesync-checksums.json";
+    public static final int FORMAT = 2;
+    /**
+     * Files modified less than this many milliseconds before being hashed are not stored.
+     */
+    private static final long RACY_MILLIS = 2000;
+    @Inject
+    private Logger log;
+    @Inject
+    private CurseSync.Configuration config;
+    private final Map<String, Entry> stored = Maps.newConcurrentMap();
+    private final Map<String, Entry> used = Maps.newConcurrentMap();
+    private boolean loaded;
+
+    /**
+     * @return the remembered checksum of the file or null if it is unknown, was calculated with another algorithm or the
+     * file changed since it was hashed
+     */
+    @Nullable
+    public HashCode lookup(@Nonnull Path file, @Nonnull BasicFileAttributes attributes, @Nonnull ChecksumAlgorithm algorithm)
+    {
+        String key = key(file);
+        if (key == null)
+            return null;
+        load();
+        Entry entry = used.get(key);
+        if (entry == null)
+            entry = stored.get(key);
+        if (entry == null || entry.algorithm != algorithm || !entry.matches(attributes))
+            return null;
+        used.put(key, entry);
+        return entry.checksum;
+    }
+
+    /**
+     * Remembers the checksum of a file, the attributes must have been read before hashing it.
+     */
+    public void record(@Nonnull Path file, @Nonnull BasicFileAttributes attributes, @Nonnull ChecksumAlgorithm algorithm, @Nonnull HashCode checksum)
+    {
+        String key = key(file);
+        if (key == null)
+            return;
+        boolean racy = System.currentTimeMillis() - attributes.lastModifiedTime().toMillis() < RACY_MILLIS;
+        used.put(key, new Entry(attributes.size(), attributes.lastModifiedTime().toMillis(), inode(attributes), algorithm, checksum, racy));
+    }
+
+    /**
+     * Writes the checksums used in this run next to the installation file, entries which were not used are dropped.
+     */
+    public void save()
+    {
+        if (config.output == null)
+            return;
+        File file = new File(config.output, FILE_NAME);
+        Map<String, Entry> files = new TreeMap<>();
+        used.forEach((key, entry) ->
+        {
+            if (!entry.racy)
+                files.put(key, entry);
+        });
+        File tmpFile = new File(config.output, FILE_NAME + ".tmp");
+        try
+        {
+            try (JsonWriter writer = new JsonWriter(new BufferedWriter(new FileWriter(tmpFile))))
+            {
+                CurseSync.GSON.toJson(new Stored(files), Stored.class, writer);
+            }
+            // The index may be hard linked into snapshots, never modify it in place
+            FileTrees.replace(tmpFile.toPath(), file.toPath());
+            log.debug("Saved {} checksums to '{}'.", files.size(), file.getAbsolutePath());
+        }
+        catch (IOException e)
+        {
+            log.warn("Failed to save checksum index, files will be hashed again next time.", e);
+        }
+    }
+
+    private synchronized void load()
+    {
+        if (loaded)
+            return;
+        loaded = true;
+        if (config.output == null)
+            return;
+        File file = new File(config.output, FILE_NAME);
+        if (!file.exists())
+            return;
+        try (Reader reader = new BufferedReader(new FileReader(file)))
+        {
+            Stored index = CurseSync.GSON.fromJson(reader, Stored.class);
+            if (index != null && index.format == FORMAT && index.files != null)
+                stored.putAll(index.files);
+        }
+        catch (IOException | JsonParseException e)
+        {
+            log.warn("Failed to read checksum index, all files will be hashed again.", e);
+        }
+    }
+
+    @Nullable
+    private String key(Path file)
+    {
+        if (file.getFileSystem() != FileSystems.getDefault())
+            return null;
+        Path absolute = file.toAbsolutePath().normalize();
+        if (config.output != null)
+        {
+            Path root = config.output.toPath().toAbsolutePath().normalize();
+            if (absolute.startsWith(root))
+                return root.relativize(absolute).toString().replace('\\', '/');
+        }
+        return absolute.toString();
+    }
+
+    @Nullable
+    private static String inode(BasicFileAttributes attributes)
+    {
+        Object key = attributes.fileKey();
+        return key == null ? null : key.toString();
+    }
+
+    private static class Stored
+    {
+        final int format;
+        final Map<String, Entry> files;
+
+        Stored(Map<String, Entry> files)
+        {
+            this.format = FORMAT;
+            this.files = files;
+        }
+    }
+
+    private static class Entry
+    {
+        final long size;
+        final long modified;
+        @Nullable
+        final String inode;
+        final ChecksumAlgorithm algorithm;
+        final HashCode checksum;
+        final transient boolean racy;
+
+        Entry(long size, long modified, @Nullable String inode, ChecksumAlgorithm algorithm, HashCode checksum, boolean racy)
+        {
+            this.size = size;
+            this.modified = modified;
+            this.inode = inode;
+            this.algorithm = algorithm;
+            this.checksum = checksum;
+            this.racy = racy;
+        }
+
+        boolean matches(BasicFileAttributes attributes)
+        {
+            return size == attributes.size() && modified == attributes.lastModifiedTime().toMillis() &&
+                    (inode == null || Objects.equals(inode, inode(attributes)));
+        }
+    }
+}
@@ -0,0 +1,276 @@
+package de.mineformers.cursesync.sync;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.inject.Inject;
+import de.mineformers.cursesync.sync.model.ChecksumAlgorithm;
+import de.mineformers.cursesync.sync.model.FileOverride;
+import de.mineformers.cursesync.sync.model.OverrideFilter;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.message.FormattedMessageFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * Calculates the checksums of override files on the work-stealing pool of the {@link ResourceGovernor}.
+ * Directory trees are walked in parallel, every directory forks a task per subdirectory and splits its files among
+ * further tasks, so idle workers steal whatever is left. The results never depend on the scheduling: trees are
+ * ordered by path and lists of files keep the order they were requested in.
+ */
+public class ChecksumService
+{
+    private static final int BUFFER_SIZE = 64 * 1024;
+    /**
+     * The number of files below which a task hashes them itself instead of splitting them further.
+     */
+    private static final int SPLIT_THRESHOLD = 4;
+    private static final ThreadLocal<byte[]> BUFFERS = ThreadLocal.withInitial(() -> new byte[BUFFER_SIZE]);
+    @Inject
+    private Logger log;
+    @Inject
+    private ResourceGovernor governor;
+    @Inject
+    private ChecksumIndex index;
+
+    /**
+     * @return the checksum of the given file, only hashed if the {@link ChecksumIndex} does not know it already
+     */
+    @Nonnull
+    public HashCode checksum(@Nonnull Path file, @Nonnull ChecksumAlgorithm algorithm) throws IOException
+    {
+        BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        HashCode known = index.lookup(file, attributes, algorithm);
+        if (known != null)
+            return known;
+        HashCode checksum = digest(file, algorithm);
+        index.record(file, attributes, algorithm, checksum);
+        return checksum;
+    }
+
+    private HashCode digest(Path file, ChecksumAlgorithm algorithm) throws IOException
+    {
+        Hasher hasher = algorithm.function().newHasher();
+        byte[] buffer = BUFFERS.get();
+        try (InputStream in = governor.read(Files.newInputStream(file)))
+        {
+            int read;
+            while ((read = in.read(buffer)) > 0)
+                hasher.putBytes(buffer, 0, read);
+        }
+        return hasher.hash();
+    }
+
+    /**
+     * Calculates the checksums of all files in a directory tree.
+     *
+     * @param filter   selects the files to hash by their paths relative to the root, all files if null
+     * @param listener called with the relative path of every hashed file, from the worker threads
+     * @return the checksums ordered by path or null if any file could not be hashed
+     */
+    @Nullable
+    public List<FileOverride> hashTree(@Nonnull Path root, @Nonnull ChecksumAlgorithm algorithm, @Nullable OverrideFilter filter,
+                                       @Nullable Consumer<String> listener)
+    {
+        if (!Files.isDirectory(root))
+            return ImmutableList.of();
+        Queue<FileOverride> results = new ConcurrentLinkedQueue<>();
+        AtomicBoolean failed = new AtomicBoolean();
+        governor.workers().invoke(new TreeTask(root, root, algorithm, OverrideFilter.isEmpty(filter) ? null : filter, results, failed, listener));
+        if (failed.get())
+            return null;
+        List<FileOverride> checksums = Lists.newArrayList(results);
+        checksums.sort(Comparator.comparing(o -> o.path));
+        return checksums;
+    }
+
+    /**
+     * Calculates the checksums of the given files, failures are reported per file.
+     *
+     * @param paths paths relative to the root
+     * @return one result per path, in the same order
+     */
+    @Nonnull
+    public List<Result> hashFiles(@Nonnull Path root, @Nonnull ChecksumAlgorithm algorithm, @Nonnull List<String> paths)
+    {
+        Result[] results = new Result[paths.size()];
+        governor.workers().invoke(new FilesTask(0, paths.size(), i ->
+        {
+            String path = paths.get(i);
+            Path file = root.resolve(path);
+            if (!Files.isRegularFile(file))
+            {
+                results[i] = new Result(path, null, null);
+                return;
+            }
+            try
+            {
+                results[i] = new Result(path, checksum(file, algorithm), null);
+            }
+            catch (IOException e)
+            {
+                results[i] = new Result(path, null, e);
+            }
+        }));
+        return ImmutableList.copyOf(results);
+    }
+
+    /**
+     * Hashes a range of indices, splitting it in halves until it is small enough.
+     */
+    private static class FilesTask extends RecursiveAction
+    {
+        private static final long serialVersionUID = 1L;
+        private final int from;
+        private final int to;
+        private final IndexConsumer work;
+
+        FilesTask(int from, int to, IndexConsumer work)
+        {
+            this.from = from;
+            this.to = to;
+            this.work = work;
+        }
+
+        @Override
+        protected void compute()
+        {
+            if (to - from <= SPLIT_THRESHOLD)
+            {
+                for (int i = from; i < to; i++)
+                    work.accept(i);
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new FilesTask(from, middle, work), new FilesTask(middle, to, work));
+        }
+    }
+
+    private interface IndexConsumer
+    {
+        void accept(int index);
+    }
+
+    private class TreeTask extends RecursiveAction
+    {
+        private static final long serialVersionUID = 1L;
+        private final Path root;
+        private final Path directory;
+        private final ChecksumAlgorithm algorithm;
+        private final OverrideFilter filter;
+        private final Queue<FileOverride> results;
+        private final AtomicBoolean failed;
+        private final Consumer<String> listener;
+
+        TreeTask(Path root, Path directory, ChecksumAlgorithm algorithm, OverrideFilter filter, Queue<FileOverride> results,
+                 AtomicBoolean failed, Consumer<String> listener)
+        {
+            this.root = root;
+            this.directory = directory;
+            this.algorithm = algorithm;
+            this.filter = filter;
+            this.results = results;
+            this.failed = failed;
+            this.listener = listener;
+        }
+
+        @Override
+        protected void compute()
+        {
+            if (failed.get())
+                return;
+            List<RecursiveAction> tasks = Lists.newArrayList();
+            List<Path> files = Lists.newArrayList();
+            try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory))
+            {
+                for (Path entry : entries)
+                {
+                    String path = root.relativize(entry).toString();
+                    if (Files.isDirectory(entry))
+                    {
+                        if (filter == null || !filter.excludesDirectory(path))
+                            tasks.add(new TreeTask(root, entry, algorithm, filter, results, failed, listener));
+                    }
+                    else if (filter == null || filter.matches(path))
+                    {
+                        files.add(entry);
+                    }
+                }
+            }
+            catch (IOException e)
+            {
+                log.error(new FormattedMessageFactory().newMessage("Failed to list override directory {}!", directory.toUri()), e);
+                failed.set(true);
+                return;
+            }
+            if (!files.isEmpty())
+            {
+                tasks.add(new FilesTask(0, files.size(), i ->
+                {
+                    if (failed.get())
+                        return;
+                    Path file = files.get(i);
+                    String path = root.relativize(file).toString();
+                    try
+                    {
+                        results.add(new FileOverride(path, checksum(file, algorithm)));
+                        if (listener != null)
+                            listener.accept(path);
+                    }
+                    catch (IOException e)
+                    {
+                        log.error(new FormattedMessageFactory().newMessage("Failed to calculate checksum of file {}!", file.toUri()), e);
+                        failed.set(true);
+                    }
+                }));
+            }
+            invokeAll(tasks);
+        }
+    }
+
+    /**
+     * The checksum of a single requested file.
+     */
+    public static final class Result
+    {
+        @Nonnull
+        public final String path;
+        /**
+         * The checksum or null if the file does not exist or could not be read.
+         */
+        @Nullable
+        public final HashCode checksum;
+        /**
+         * The reason the file could not be read, null if it was hashed or does not exist.
+         */
+        @Nullable
+        public final IOException error;
+
+        Result(@Nonnull String path, @Nullable HashCode checksum, @Nullable IOException error)
+        {
+            this.path = path;
+            this.checksum = checksum;
+            this.error = error;
+        }
+
+        public boolean exists()
+        {
+            return checksum != null || error != null;
+        }
+    }
+}
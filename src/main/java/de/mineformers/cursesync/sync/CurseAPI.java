@@ -7,12 +7,18 @@ import com.google.common.base.Strings;
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.ImmutableList;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.CountingInputStream;
 import com.google.inject.Inject;
 import de.mineformers.cursesync.sync.model.CurseProject;
+import org.apache.http.Header;
+import org.apache.http.HttpHeaders;
 import org.apache.http.HttpHost;
 import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
 import org.apache.http.client.HttpClient;
 import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpHead;
 import org.apache.http.client.methods.HttpUriRequest;
 import org.apache.http.protocol.BasicHttpContext;
 import org.apache.http.protocol.HttpContext;
@@ -27,14 +33,15 @@ import org.jsoup.select.Elements;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
-import java.io.File;
-import java.io.FileOutputStream;
+import java.io.*;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
@@ -61,13 +68,17 @@ public class CurseAPI
             .expireAfterWrite(5, TimeUnit.MINUTES)
             .build();
     private final Cache<Integer, String> modSlugs = CacheBuilder.newBuilder()
-            .maximumSize(200)
-            .expireAfterWrite(5, TimeUnit.MINUTES)
+            .maximumSize(1000)
+            .expireAfterWrite(30, TimeUnit.MINUTES)
             .build();
+    private final Map<File, CompletableFuture<Boolean>> downloads = new ConcurrentHashMap<>();
+    private final Map<String, PackValidator> packValidators = new ConcurrentHashMap<>();
     @Inject
     private Logger log;
     @Inject
     private HttpClient http;
+    @Inject
+    private TransferStats stats;
 
     @Nonnull
     public URI getCFURI(@Nullable String path, @Nullable String query) throws URISyntaxException
@@ -144,6 +155,19 @@ public class CurseAPI
         }
     }
 
+    /**
+     * Gets the current state of a modpack, bypassing the cache.
+     * The request is conditional, so the modpack is only transferred again if it changed since it was last requested.
+     */
+    @Nullable
+    public CurseProject pollModpack(@Nonnull String slug)
+    {
+        CurseProject project = getModpack0(slug);
+        if (project != null)
+            modpacks.put(slug, project);
+        return project;
+    }
+
     @Nullable
     private CurseProject getModpack0(@Nonnull String slug)
     {
@@ -152,9 +176,28 @@ public class CurseAPI
             log.debug("Getting modpack from server...");
             URI uri = getURI(MCF_URL, String.format(PACK_PATH, slug), null);
             HttpUriRequest request = new HttpGet(uri.toURL().toString());
+            PackValidator previous = packValidators.get(slug);
+            if (previous != null)
+            {
+                if (previous.etag != null)
+                    request.setHeader(HttpHeaders.IF_NONE_MATCH, previous.etag);
+                if (previous.lastModified != null)
+                    request.setHeader(HttpHeaders.IF_MODIFIED_SINCE, previous.lastModified);
+            }
             HttpResponse response = http.execute(request);
+            if (previous != null && response.getStatusLine().getStatusCode() == HttpStatus.SC_NOT_MODIFIED)
+            {
+                EntityUtils.consume(response.getEntity());
+                log.debug("Modpack did not change since the last request.");
+                return previous.project;
+            }
             String json = EntityUtils.toString(response.getEntity());
-            return GSON.fromJson(json, CurseProject.class);
+            CurseProject project = GSON.fromJson(json, CurseProject.class);
+            Header etag = response.getFirstHeader(HttpHeaders.ETAG);
+            Header lastModified = response.getFirstHeader(HttpHeaders.LAST_MODIFIED);
+            if (project != null && (etag != null || lastModified != null))
+                packValidators.put(slug, new PackValidator(etag == null ? null : etag.getValue(), lastModified == null ? null : lastModified.getValue(), project));
+            return project;
         }
         catch (Exception e)
         {
@@ -242,12 +285,48 @@ public class CurseAPI
         return new AbstractMap.SimpleImmutableEntry<>(key, value);
     }
 
+    /**
+     * Downloads a file to the given destination. The data is written to a temporary file first and only moved into place
+     * once it is complete, so an existing destination is always the result of a finished download.
+     * Concurrent requests for the same destination share a single download.
+     */
     public boolean downloadFile(URI url, File destination, int trials)
+    {
+        return downloadFile(url, destination, trials, null);
+    }
+
+    /**
+     * @param listener notified about the progress of the download, unless it is shared with an earlier request
+     */
+    public boolean downloadFile(URI url, File destination, int trials, @Nullable TransferListener listener)
+    {
+        File key = destination.getAbsoluteFile();
+        CompletableFuture<Boolean> download = new CompletableFuture<>();
+        CompletableFuture<Boolean> running = downloads.putIfAbsent(key, download);
+        if (running != null)
+        {
+            log.info("'{}' is already being downloaded, waiting for it...", destination.getAbsolutePath());
+            return running.join();
+        }
+        boolean result = false;
+        try
+        {
+            result = downloadFile0(url, destination, trials, listener);
+            return result;
+        }
+        finally
+        {
+            downloads.remove(key);
+            download.complete(result);
+        }
+    }
+
+    private boolean downloadFile0(URI url, File destination, int trials, @Nullable TransferListener listener)
     {
         log.info("Downloading '{}' to '{}'...", url, destination.getAbsolutePath());
         if (destination.exists())
         {
-            log.info("File already exists, assuming equivalence and skipping download...");
+            log.info("File already exists, skipping download...");
             return true;
         }
         File parent = destination.getParentFile();
@@ -256,6 +335,7 @@ public class CurseAPI
             log.error("Failed to create required directories, cancelling download.");
             return false;
         }
+        File partial = new File(parent, destination.getName() + ".part");
         for (int trial = 1; trial <= trials; trial++)
         {
             try
@@ -264,15 +344,18 @@ public class CurseAPI
                 HttpResponse response = http.execute(request);
                 if (response.getStatusLine().getStatusCode() == 404)
                 {
+                    EntityUtils.consume(response.getEntity());
                     log.error("'{}' could not be found on the server, cancelling download.", url);
                     return false;
                 }
-                BufferedInputStream bis = new BufferedInputStream(response.getEntity().getContent());
-                BufferedOutputStream bos = new BufferedOutputStream(new FileOutputStream(destination));
-                int inByte;
-                while ((inByte = bis.read()) != -1) bos.write(inByte);
-                bis.close();
-                bos.close();
+                long start = System.nanoTime();
+                try (InputStream in = response.getEntity().getContent();
+                     OutputStream out = new BufferedOutputStream(new FileOutputStream(partial)))
+                {
+                    stats.record(listener == null ? ByteStreams.copy(in, out) : copy(in, out, response.getEntity().getContentLength(), listener),
+                            System.nanoTime() - start);
+                }
+                Files.move(partial.toPath(), destination.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
                 log.info("Successfully downloaded file to '{}'", destination.getAbsolutePath());
                 return true;
             }
@@ -281,10 +364,121 @@ public class CurseAPI
                 log.error(new FormattedMessageFactory().newMessage("Failed to download file, starting attempt #{}.", trial + 1), e);
             }
         }
+        if (partial.exists() && !partial.delete())
+            log.warn("Failed to delete partially downloaded file '{}'.", partial.getAbsolutePath());
         log.error("Failed to download file after {} attempts.", trials);
         return false;
     }
 
+    private static long copy(InputStream in, OutputStream out, long total, TransferListener listener) throws IOException
+    {
+        byte[] buffer = new byte[8192];
+        long transferred = 0;
+        int read;
+        while ((read = in.read(buffer)) != -1)
+        {
+            out.write(buffer, 0, read);
+            transferred += read;
+            listener.transferred(transferred, total);
+        }
+        return transferred;
+    }
+
+    /**
+     * Determines the size of a remote file without downloading it.
+     *
+     * @return the size in bytes or -1 if the server did not report it
+     */
+    public long getContentLength(URI url)
+    {
+        try
+        {
+            HttpHead request = new HttpHead(url.toURL().toString());
+            HttpResponse response = http.execute(request);
+            EntityUtils.consume(response.getEntity());
+            Header length = response.getFirstHeader(HttpHeaders.CONTENT_LENGTH);
+            if (response.getStatusLine().getStatusCode() != 200 || length == null)
+                return -1;
+            return Long.parseLong(length.getValue());
+        }
+        catch (Exception e)
+        {
+            log.debug(new FormattedMessageFactory().newMessage("Failed to determine size of '{}'.", url), e);
+            return -1;
+        }
+    }
+
+    /**
+     * Opens the given URL and hands the response body to the handler, retrying the whole request if the handler fails.
+     */
+    public boolean streamFile(URI url, int trials, StreamHandler handler)
+    {
+        log.info("Streaming '{}'...", url);
+        for (int trial = 1; trial <= trials; trial++)
+        {
+            try
+            {
+                HttpUriRequest request = new HttpGet(url.toURL().toString());
+                HttpResponse response = http.execute(request);
+                if (response.getStatusLine().getStatusCode() == 404)
+                {
+                    EntityUtils.consume(response.getEntity());
+                    log.error("'{}' could not be found on the server, cancelling download.", url);
+                    return false;
+                }
+                long start = System.nanoTime();
+                try (CountingInputStream stream = new CountingInputStream(response.getEntity().getContent()))
+                {
+                    boolean handled = handler.handle(stream);
+                    stats.record(stream.getCount(), System.nanoTime() - start);
+                    if (handled)
+                    {
+                        log.info("Successfully streamed '{}'", url);
+                        return true;
+                    }
+                }
+                log.error("Failed to process streamed file, cancelling download.");
+                return false;
+            }
+            catch (Exception e)
+            {
+                log.error(new FormattedMessageFactory().newMessage("Failed to stream file, starting attempt #{}.", trial + 1), e);
+            }
+        }
+        log.error("Failed to stream file after {} attempts.", trials);
+        return false;
+    }
+
+    public interface StreamHandler
+    {
+        boolean handle(InputStream stream) throws IOException;
+    }
+
+    public interface TransferListener
+    {
+        /**
+         * @param total the size of the file or -1 if the server did not report it
+         */
+        void transferred(long bytes, long total);
+    }
+
+    /**
+     * The cache validators of the last modpack response, used for conditional requests.
+     */
+    private static class PackValidator
+    {
+        final String etag;
+        final String lastModified;
+        final CurseProject project;
+
+        private PackValidator(@Nullable String etag, @Nullable String lastModified, CurseProject project)
+        {
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.project = project;
+        }
+    }
+
     private static class SearchRequest
     {
         final String category;
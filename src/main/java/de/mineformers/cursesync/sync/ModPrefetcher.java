@@ -0,0 +1,80 @@
+package de.mineformers.cursesync.sync;
+
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.inject.Inject;
+import de.mineformers.cursesync.sync.model.Mod;
+import org.apache.logging.log4j.Logger;
+
+import javax.annotation.Nonnull;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+
+/**
+ * Speculatively resolves mod slugs for the mods of a previous installation while the configuration is still being
+ * validated. The results end up in {@link CurseAPI}'s slug cache, so the actual download step will find them there.
+ * Once the real manifest is known, predictions for mods which are no longer part of the pack are discarded.
+ * <p>
+ * Predictions run on a few threads of their own, so mispredictions never hold up the actual downloads on the shared
+ * download executor.
+ */
+public class ModPrefetcher
+{
+    private static final int THREADS = 2;
+    private final Map<Integer, CompletableFuture<String>> predictions = Maps.newConcurrentMap();
+    @Inject
+    private Logger log;
+    @Inject
+    private CurseAPI api;
+    private ExecutorService executor;
+
+    public synchronized void start(@Nonnull Collection<Mod> predicted)
+    {
+        log.info("Speculatively resolving {} mods from the previous installation...", predicted.size());
+        if (executor == null)
+        {
+            executor = Executors.newFixedThreadPool(THREADS, new ThreadFactoryBuilder()
+                    .setNameFormat("mod-prefetch-%d")
+                    .setDaemon(true)
+                    .build());
+        }
+        for (Mod mod : predicted)
+        {
+            // Cancelled predictions which did not start yet are skipped without a request
+            predictions.computeIfAbsent(mod.projectId, id -> CompletableFuture.supplyAsync(() -> api.getModSlug(id), executor));
+        }
+    }
+
+    public synchronized void reconcile(@Nonnull Collection<Mod> actual)
+    {
+        if (executor != null)
+        {
+            // Lets the remaining hits finish, the threads end once they are done
+            executor.shutdown();
+            executor = null;
+        }
+        if (predictions.isEmpty())
+            return;
+        Set<Integer> actualIds = actual.stream().map(mod -> mod.projectId).collect(Collectors.toSet());
+        int hits = 0;
+        int discarded = 0;
+        for (Map.Entry<Integer, CompletableFuture<String>> prediction : predictions.entrySet())
+        {
+            if (actualIds.contains(prediction.getKey()))
+            {
+                hits++;
+            }
+            else if (prediction.getValue().cancel(false))
+            {
+                discarded++;
+            }
+        }
+        log.info("Prefetched metadata for {} of {} mods in the manifest, discarded {} mispredictions.", hits, actualIds.size(), discarded);
+        predictions.clear();
+    }
+}
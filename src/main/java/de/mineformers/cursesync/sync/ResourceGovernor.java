@@ -0,0 +1,287 @@
+package de.mineformers.cursesync.sync;
+
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.RateLimiter;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import de.mineformers.cursesync.CurseSync;
+import org.apache.commons.io.FileUtils;
+import org.apache.logging.log4j.Logger;
+
+import javax.annotation.Nonnull;
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limits the local resources installations use, so they can run next to a live game server.
+ * It caps the worker threads used for extracting and hashing, throttles the disk reads and writes of hashing,
+ * extraction and copying to a shared budget of bytes per second and can lower the scheduling priority of the process.
+ * <p>
+ * Installations with the same limits share a governor, so its disk budget applies to all of them together.
+ */
+public class ResourceGovernor
+{
+    public static final int LOW_IMPACT_THREADS = 2;
+    public static final long LOW_IMPACT_BYTES_PER_SECOND = 16L * 1024 * 1024;
+    private static final AtomicBoolean PRIORITY_LOWERED = new AtomicBoolean();
+    private final int threads;
+    private final long bytesPerSecond;
+    private final boolean lowPriority;
+    private final RateLimiter limiter;
+    private final AtomicLong throttledBytes = new AtomicLong();
+    private final AtomicLong waitedNanos = new AtomicLong();
+    private volatile ForkJoinPool workers;
+
+    /**
+     * @param threads        the maximum number of worker threads for local work
+     * @param bytesPerSecond the disk budget, 0 if disk access is not throttled
+     * @param lowPriority    whether worker threads and the process run with a lower priority
+     */
+    public ResourceGovernor(int threads, long bytesPerSecond, boolean lowPriority)
+    {
+        this.threads = Math.max(1, threads);
+        this.bytesPerSecond = Math.max(0, bytesPerSecond);
+        this.lowPriority = lowPriority;
+        this.limiter = bytesPerSecond > 0 ? RateLimiter.create(bytesPerSecond) : null;
+    }
+
+    /**
+     * Creates a governor for the limits of a configuration, low-impact mode provides defaults for the ones not set.
+     */
+    @Nonnull
+    public static ResourceGovernor of(@Nonnull CurseSync.Configuration config)
+    {
+        int threads = config.workerThreads > 0 ? config.workerThreads :
+                config.lowImpact ? LOW_IMPACT_THREADS : Runtime.getRuntime().availableProcessors();
+        long bytesPerSecond = config.diskRate > 0 ? config.diskRate : config.lowImpact ? LOW_IMPACT_BYTES_PER_SECOND : 0;
+        return new ResourceGovernor(threads, bytesPerSecond, config.lowImpact);
+    }
+
+    public int threads()
+    {
+        return threads;
+    }
+
+    /**
+     * @return the number of threads to use for work which could use the given number
+     */
+    public int threads(int wanted)
+    {
+        return Math.max(1, Math.min(threads, wanted));
+    }
+
+    public long bytesPerSecond()
+    {
+        return bytesPerSecond;
+    }
+
+    public boolean lowPriority()
+    {
+        return lowPriority;
+    }
+
+    /**
+     * @return a factory for daemon worker threads, with minimal priority if the priority is lowered
+     */
+    @Nonnull
+    public ThreadFactory threadFactory(@Nonnull String nameFormat)
+    {
+        return new ThreadFactoryBuilder()
+                .setNameFormat(nameFormat)
+                .setDaemon(true)
+                .setPriority(lowPriority ? Thread.MIN_PRIORITY : Thread.NORM_PRIORITY)
+                .build();
+    }
+
+    /**
+     * @return a work-stealing pool with one worker per allowed thread, shared by everything using this governor
+     */
+    @Nonnull
+    public ForkJoinPool workers()
+    {
+        if (workers == null)
+        {
+            synchronized (this)
+            {
+                if (workers == null)
+                {
+                    workers = new ForkJoinPool(threads, pool ->
+                    {
+                        ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                        thread.setName("cursesync-worker-" + thread.getPoolIndex());
+                        thread.setDaemon(true);
+                        thread.setPriority(lowPriority ? Thread.MIN_PRIORITY : Thread.NORM_PRIORITY);
+                        return thread;
+                    }, null, false);
+                }
+            }
+        }
+        return workers;
+    }
+
+    /**
+     * Blocks until the given number of bytes may be read or written.
+     */
+    public void acquire(int bytes)
+    {
+        if (limiter == null || bytes <= 0)
+            return;
+        double waited = limiter.acquire(bytes);
+        throttledBytes.addAndGet(bytes);
+        waitedNanos.addAndGet((long) (waited * TimeUnit.SECONDS.toNanos(1)));
+    }
+
+    /**
+     * @return the stream, throttled to the disk budget
+     */
+    @Nonnull
+    public InputStream read(@Nonnull InputStream in)
+    {
+        if (limiter == null)
+            return in;
+        return new FilterInputStream(in)
+        {
+            @Override
+            public int read() throws IOException
+            {
+                int b = super.read();
+                if (b >= 0)
+                    acquire(1);
+                return b;
+            }
+
+            @Override
+            public int read(@Nonnull byte[] b, int off, int len) throws IOException
+            {
+                int read = super.read(b, off, len);
+                acquire(read);
+                return read;
+            }
+        };
+    }
+
+    /**
+     * @return the stream, throttled to the disk budget
+     */
+    @Nonnull
+    public OutputStream write(@Nonnull OutputStream out)
+    {
+        if (limiter == null)
+            return out;
+        return new FilterOutputStream(out)
+        {
+            @Override
+            public void write(int b) throws IOException
+            {
+                acquire(1);
+                out.write(b);
+            }
+
+            @Override
+            public void write(@Nonnull byte[] b, int off, int len) throws IOException
+            {
+                acquire(len);
+                out.write(b, off, len);
+            }
+        };
+    }
+
+    /**
+     * Copies a file including its modification time, the target must not exist.
+     */
+    public void copy(@Nonnull Path source, @Nonnull Path target) throws IOException
+    {
+        if (limiter == null)
+        {
+            Files.copy(source, target, StandardCopyOption.COPY_ATTRIBUTES);
+            return;
+        }
+        try (InputStream in = read(Files.newInputStream(source));
+             OutputStream out = write(Files.newOutputStream(target, StandardOpenOption.CREATE_NEW)))
+        {
+            ByteStreams.copy(in, out);
+        }
+        Files.setLastModifiedTime(target, Files.getLastModifiedTime(source));
+    }
+
+    /**
+     * Lowers the scheduling priority of the whole process if the priority should be lowered and the OS allows it.
+     * On Linux this also moves the process into the idle I/O class. Only the first call has an effect.
+     * <p>
+     * Threads inherit the priority of the thread creating them, so this should be called before any pools are started.
+     */
+    public void lowerProcessPriority(@Nonnull Logger log)
+    {
+        if (!lowPriority || !PRIORITY_LOWERED.compareAndSet(false, true))
+            return;
+        String name = ManagementFactory.getRuntimeMXBean().getName();
+        if (!name.contains("@"))
+        {
+            log.debug("Could not determine process id, keeping the scheduling priority.");
+            return;
+        }
+        String pid = name.substring(0, name.indexOf('@'));
+        String os = System.getProperty("os.name", "").toLowerCase();
+        if (os.contains("win"))
+        {
+            // 16384 is the "below normal" priority class
+            runQuietly(log, "wmic", "process", "where", "processid=" + pid, "CALL", "setpriority", "16384");
+            return;
+        }
+        runQuietly(log, "renice", "-n", "10", "-p", pid);
+        if (os.contains("linux"))
+            runQuietly(log, "ionice", "-c", "3", "-p", pid);
+    }
+
+    private static void runQuietly(Logger log, String... command)
+    {
+        try
+        {
+            Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+            ByteStreams.exhaust(process.getInputStream());
+            if (process.waitFor(5, TimeUnit.SECONDS) && process.exitValue() == 0)
+                log.debug("Lowered process priority with '{}'.", command[0]);
+            else
+                log.debug("Could not lower process priority with '{}'.", command[0]);
+        }
+        catch (IOException e)
+        {
+            log.debug("Could not lower process priority, '{}' is not available.", command[0]);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return a stable description of the limits, e.g. for sharing governors
+     */
+    @Nonnull
+    public String describe()
+    {
+        return "threads=" + threads + ";bytesPerSecond=" + bytesPerSecond + ";lowPriority=" + lowPriority;
+    }
+
+    /**
+     * Logs the limits and how much disk access they throttled so far.
+     */
+    public void report(@Nonnull Logger log)
+    {
+        log.info("Resource limits: {} worker threads, disk I/O {}, {} priority.", threads,
+                bytesPerSecond > 0 ? FileUtils.byteCountToDisplaySize(bytesPerSecond) + "/s" : "unlimited",
+                lowPriority ? "lowered" : "normal");
+        if (limiter != null)
+            log.info("Throttled {} of disk I/O, waiting {}s for the budget in total.",
+                    FileUtils.byteCountToDisplaySize(throttledBytes.get()), TimeUnit.NANOSECONDS.toSeconds(waitedNanos.get()));
+    }
+}
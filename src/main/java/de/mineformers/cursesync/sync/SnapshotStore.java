@@ -0,0 +1,293 @@
+package de.mineformers.cursesync.sync;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.google.gson.JsonParseException;
+import de.mineformers.cursesync.CurseSync;
+import de.mineformers.cursesync.sync.model.Installation;
+import de.mineformers.cursesync.util.FileTrees;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.message.FormattedMessageFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+/**
+ * Hard linked copies of the output directory taken after successful installations, stored in {@code <output>.snapshots}.
+ * Taking a snapshot only creates links, so it is cheap, and restoring one does not require any downloads.
+ * <p>
+ * Files which are modified in place after a snapshot was taken (e.g. world data written by the game) share their
+ * contents with the snapshot. The files managed by CurseSync are always replaced rather than modified.
+ * <p>
+ * Restoring a snapshot only rolls back the files managed by CurseSync, every other file is kept as it is in the
+ * output directory.
+ */
+public class SnapshotStore
+{
+    private static final DateTimeFormatter NAME_FORMAT = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss");
+    private static final String MOD_LIST = "mods" + File.separator + "mod_list.json";
+    private static final String PACK_MOD_LIST = "mods" + File.separator + "mod_list_pack.json";
+    private final Logger log;
+    private final File output;
+    private final File directory;
+
+    public SnapshotStore(@Nonnull Logger log, @Nonnull File output)
+    {
+        this.log = log;
+        this.output = output;
+        this.directory = new File(output.getParentFile(), output.getName() + ".snapshots");
+    }
+
+    /**
+     * @return the names of all complete snapshots, oldest first
+     */
+    @Nonnull
+    public List<String> list()
+    {
+        File[] files = directory.listFiles(f -> f.isDirectory() && !f.getName().endsWith(".tmp"));
+        if (files == null)
+            return Collections.emptyList();
+        return Arrays.stream(files).map(File::getName).sorted().collect(Collectors.toList());
+    }
+
+    /**
+     * Snapshots the output directory and deletes the oldest snapshots exceeding the retention limit.
+     */
+    public boolean take(@Nonnull String label, int retain)
+    {
+        String name = LocalDateTime.now().format(NAME_FORMAT) + "-" + label.replaceAll("[^A-Za-z0-9._-]", "_");
+        Path target = new File(directory, name).toPath();
+        Path tmp = new File(directory, name + ".tmp").toPath();
+        log.info("Taking snapshot '{}' of the output directory...", name);
+        try
+        {
+            FileTrees.deleteTree(tmp);
+            int copied = FileTrees.linkTree(output.toPath(), tmp);
+            if (copied > 0)
+                log.warn("{} files could not be hard linked into the snapshot and were copied instead.", copied);
+            Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (IOException e)
+        {
+            log.error(new FormattedMessageFactory().newMessage("Failed to take snapshot '{}'!", name), e);
+            return false;
+        }
+        prune(retain);
+        return true;
+    }
+
+    private void prune(int retain)
+    {
+        List<String> snapshots = list();
+        for (String name : snapshots.subList(0, Math.max(0, snapshots.size() - retain)))
+        {
+            log.info("Deleting snapshot '{}' exceeding the retention limit of {}.", name, retain);
+            try
+            {
+                FileTrees.deleteTree(new File(directory, name).toPath());
+            }
+            catch (IOException e)
+            {
+                log.warn(new FormattedMessageFactory().newMessage("Failed to delete snapshot '{}'.", name), e);
+            }
+        }
+    }
+
+    /**
+     * Picks the snapshot to roll back to.
+     *
+     * @param query part of the snapshot's name, if null the newest snapshot differing from the current installation is used
+     * @return the snapshot's name or null if there is no matching snapshot
+     */
+    @Nullable
+    public String find(@Nullable String query, @Nonnull String installationFile)
+    {
+        String current = digest(new File(output, installationFile));
+        for (String name : Lists.reverse(list()))
+        {
+            if (query != null ? name.contains(query) : !Objects.equals(current, digest(new File(new File(directory, name), installationFile))))
+                return name;
+        }
+        return null;
+    }
+
+    /**
+     * Replaces the output directory with the given snapshot, the replaced directory is kept as {@code <output>.previous}.
+     * Files not managed by either installation (e.g. worlds or configuration written by the game) are taken from the
+     * output directory rather than the snapshot, so they are neither rolled back nor lost.
+     */
+    public boolean restore(@Nonnull String name, @Nonnull String installationFile)
+    {
+        Path snapshot = new File(directory, name).toPath();
+        Path live = output.toPath();
+        Path staging = new File(output.getParentFile(), output.getName() + ".staging").toPath();
+        Path previous = new File(output.getParentFile(), output.getName() + ".previous").toPath();
+        log.info("Rolling back to snapshot '{}'...", name);
+        try
+        {
+            FileTrees.deleteTree(staging);
+            FileTrees.linkTree(snapshot, staging);
+            Predicate<String> managed = managed(installationFile, snapshot, live);
+            log.info("Carried over {} files not managed by CurseSync from the output directory.", carryOver(live, staging, managed));
+            if (Files.exists(previous))
+            {
+                log.warn("Deleting '{}', which was kept from the last installation or rollback.", previous);
+                FileTrees.deleteTree(previous);
+            }
+            if (Files.exists(live))
+                Files.move(live, previous, StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (IOException e)
+        {
+            log.error(new FormattedMessageFactory().newMessage("Failed to roll back to snapshot '{}'!", name), e);
+            return false;
+        }
+        try
+        {
+            Files.move(staging, live, StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (IOException e)
+        {
+            log.error(new FormattedMessageFactory().newMessage("Failed to move snapshot '{}' into place, restoring the output directory...", name), e);
+            try
+            {
+                if (Files.exists(previous) && !Files.exists(live))
+                    Files.move(previous, live, StandardCopyOption.ATOMIC_MOVE);
+            }
+            catch (IOException e1)
+            {
+                log.error(new FormattedMessageFactory().newMessage("Failed to restore the output directory, it was left in '{}'!", previous), e1);
+            }
+            return false;
+        }
+        log.info("Rolled back to snapshot '{}', the replaced output directory was kept in '{}'.", name, previous);
+        return true;
+    }
+
+    /**
+     * @return whether a path relative to the output directory belongs to the installation of any of the given directories
+     */
+    @Nonnull
+    private Predicate<String> managed(@Nonnull String installationFile, @Nonnull Path... directories)
+    {
+        Set<String> paths = Sets.newHashSet(installationFile, installationFile + ".tmp", ChecksumIndex.FILE_NAME,
+                ChecksumIndex.FILE_NAME + ".tmp", MOD_LIST, PACK_MOD_LIST);
+        boolean server = false;
+        for (Path directory : directories)
+        {
+            Installation installation = readInstallation(directory.resolve(installationFile).toFile());
+            if (installation == null)
+                continue;
+            if (installation.overrides != null)
+                installation.overrides.forEach(o -> paths.add(o.path));
+            if (installation.server)
+            {
+                server = true;
+                paths.add("minecraft_server." + installation.gameVersion + ".jar");
+                if (installation.forgeVersion != null)
+                    paths.add("forge-" + installation.gameVersion + "-" + installation.forgeVersion + "-universal.jar");
+            }
+        }
+        // The Forge server installer writes the libraries matching its version
+        String libraries = "libraries" + File.separator;
+        return server ? path -> paths.contains(path) || path.startsWith(libraries) : paths::contains;
+    }
+
+    @Nullable
+    private Installation readInstallation(File file)
+    {
+        if (!file.exists())
+            return null;
+        try (Reader reader = new FileReader(file))
+        {
+            return CurseSync.GSON.fromJson(reader, Installation.class);
+        }
+        catch (IOException | JsonParseException e)
+        {
+            log.warn(new FormattedMessageFactory().newMessage("Failed to read installation '{}', treating its files as unmanaged.", file.getAbsolutePath()), e);
+            return null;
+        }
+    }
+
+    /**
+     * Makes the unmanaged files of the restored directory match the ones of the output directory.
+     *
+     * @return the number of files carried over or deleted
+     */
+    private int carryOver(Path live, Path staging, Predicate<String> managed) throws IOException
+    {
+        int[] changed = {0};
+        Files.walkFileTree(staging, new SimpleFileVisitor<Path>()
+        {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException
+            {
+                String path = staging.relativize(file).toString();
+                if (!managed.test(path) && !Files.exists(live.resolve(path), LinkOption.NOFOLLOW_LINKS))
+                {
+                    log.debug("Deleting '{}' which does not exist in the output directory anymore.", path);
+                    Files.delete(file);
+                    changed[0]++;
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        if (!Files.isDirectory(live))
+            return changed[0];
+        Files.walkFileTree(live, new SimpleFileVisitor<Path>()
+        {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException
+            {
+                String path = live.relativize(file).toString();
+                Path target = staging.resolve(path);
+                if (managed.test(path) || Files.exists(target, LinkOption.NOFOLLOW_LINKS) && Files.isSameFile(file, target))
+                    return FileVisitResult.CONTINUE;
+                log.debug("Carrying over '{}' from the output directory.", path);
+                Files.createDirectories(target.getParent());
+                Files.deleteIfExists(target);
+                FileTrees.linkOrCopy(file, target);
+                changed[0]++;
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return changed[0];
+    }
+
+    @Nullable
+    private static String digest(File file)
+    {
+        if (!file.exists())
+            return null;
+        try (InputStream stream = Files.newInputStream(file.toPath()))
+        {
+            return DigestUtils.md5Hex(stream);
+        }
+        catch (IOException e)
+        {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package de.mineformers.cursesync.sync;
+
+import com.google.gson.JsonParseException;
+import com.google.gson.stream.JsonWriter;
+import de.mineformers.cursesync.CurseSync;
+
+import javax.annotation.Nonnull;
+import java.io.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Download throughput accumulated over all runs sharing a temporary directory, used for estimating future downloads.
+ */
+public class TransferStats
+{
+    private long bytes;
+    private long millis;
+
+    public synchronized void record(long bytes, long nanos)
+    {
+        this.bytes += bytes;
+        this.millis += TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+
+    /**
+     * @return the average throughput in bytes per second or -1 if nothing has been downloaded yet
+     */
+    public synchronized double bytesPerSecond()
+    {
+        return millis <= 0 ? -1 : bytes * 1000.0 / millis;
+    }
+
+    public synchronized void load(@Nonnull File file)
+    {
+        if (!file.exists())
+            return;
+        try (Reader reader = new FileReader(file))
+        {
+            TransferStats stored = CurseSync.GSON.fromJson(reader, TransferStats.class);
+            if (stored != null)
+            {
+                bytes += stored.bytes;
+                millis += stored.millis;
+            }
+        }
+        catch (IOException | JsonParseException e)
+        {
+            // Statistics are only used for estimates, start over if they are broken
+        }
+    }
+
+    public synchronized void save(@Nonnull File file) throws IOException
+    {
+        File parent = file.getParentFile();
+        if (!parent.exists() && !parent.mkdirs())
+            throw new IOException("Failed to create directory for transfer statistics");
+        try (JsonWriter writer = new JsonWriter(new BufferedWriter(new FileWriter(file))))
+        {
+            CurseSync.GSON.toJson(this, TransferStats.class, writer);
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package de.mineformers.cursesync.sync.installer;
+
+import com.google.common.collect.Maps;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonParseException;
+import com.google.gson.stream.JsonWriter;
+import de.mineformers.cursesync.CurseSync;
+import de.mineformers.cursesync.sync.model.Checkpoint;
+import org.apache.logging.log4j.Logger;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Objects;
+
+/**
+ * Durable record of the installation steps which completed successfully, together with their outputs.
+ * A run with identical inputs can use it to resume after the last completed step instead of starting over.
+ */
+public class CheckpointJournal
+{
+    private final Logger log;
+    private final File file;
+    private Checkpoint checkpoint;
+
+    public CheckpointJournal(@Nonnull Logger log, @Nonnull File file, @Nonnull String inputs)
+    {
+        this.log = log;
+        this.file = file;
+        this.checkpoint = load(inputs);
+    }
+
+    private Checkpoint load(String inputs)
+    {
+        if (file.exists())
+        {
+            try (Reader reader = new FileReader(file))
+            {
+                Checkpoint stored = CurseSync.GSON.fromJson(reader, Checkpoint.class);
+                if (stored != null && Objects.equals(stored.inputs, inputs) && stored.steps != null)
+                {
+                    if (!stored.steps.isEmpty())
+                        log.info("Found checkpoints of an interrupted installation, completed steps: {}", stored.steps.keySet());
+                    return stored;
+                }
+                log.info("Discarding checkpoints of an interrupted installation with different inputs.");
+            }
+            catch (IOException | JsonParseException e)
+            {
+                log.warn("Failed to read installation checkpoints, starting from scratch.", e);
+            }
+        }
+        return new Checkpoint(inputs, null, Maps.newLinkedHashMap());
+    }
+
+    /**
+     * Binds the journal to the digest of the loaded pack manifest, discarding all checkpoints made for a different one.
+     */
+    public synchronized void bindManifest(@Nonnull String digest)
+    {
+        if (checkpoint.manifest != null && !Objects.equals(checkpoint.manifest, digest))
+        {
+            log.info("Pack manifest changed since the interrupted installation, discarding checkpoints.");
+            checkpoint.steps.clear();
+        }
+        checkpoint.manifest = digest;
+    }
+
+    @Nullable
+    public synchronized JsonElement outputs(@Nonnull String step)
+    {
+        return checkpoint.steps.get(step);
+    }
+
+    public synchronized void record(@Nonnull String step, @Nullable JsonElement outputs)
+    {
+        checkpoint.steps.put(step, outputs == null ? JsonNull.INSTANCE : outputs);
+        File parent = file.getParentFile();
+        File tmpFile = new File(parent, file.getName() + ".tmp");
+        try
+        {
+            if (!parent.exists() && !parent.mkdirs())
+                throw new IOException("Failed to create checkpoint directory");
+            try (JsonWriter writer = new JsonWriter(new BufferedWriter(new FileWriter(tmpFile))))
+            {
+                CurseSync.GSON.toJson(checkpoint, Checkpoint.class, writer);
+            }
+            Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (IOException e)
+        {
+            log.warn("Failed to write installation checkpoint, the step will be repeated if the installation is interrupted.", e);
+        }
+    }
+
+    public synchronized boolean isEmpty()
+    {
+        return checkpoint.steps.isEmpty();
+    }
+
+    public synchronized void clear()
+    {
+        checkpoint.steps.clear();
+        checkpoint.manifest = null;
+        if (file.exists() && !file.delete())
+            log.warn("Failed to delete installation checkpoints '{}'.", file.getAbsolutePath());
+    }
+}
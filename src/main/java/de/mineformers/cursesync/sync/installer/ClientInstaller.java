@@ -1,13 +1,13 @@
 package de.mineformers.cursesync.sync.installer;
 
 import com.google.common.base.Splitter;
-import com.google.common.collect.ImmutableList;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonPrimitive;
 import de.mineformers.cursesync.sync.model.Mod;
 import de.mineformers.cursesync.sync.model.PackManifest;
 
 import java.io.File;
 import java.net.URISyntaxException;
-import java.util.List;
 import java.util.Optional;
 
 import static de.mineformers.cursesync.sync.installer.InstallStep.Result.FAILURE;
@@ -16,9 +16,14 @@ import static de.mineformers.cursesync.sync.installer.InstallStep.Result.SUCCESS
 public class ClientInstaller extends Installer
 {
     @Override
-    protected List<InstallStep> constructSteps()
+    protected void constructSteps(InstallGraph graph)
     {
-        return ImmutableList.of(this::installModLoaders);
+        graph.add("installModLoaders", this::installModLoaders).requires(MOD_LOADER_INSTALLER, OUTPUT_DIRECTORY).produces(MOD_LOADER)
+                .checkpoint(() -> installation.forgeVersion == null ? JsonNull.INSTANCE : new JsonPrimitive(installation.forgeVersion), outputs ->
+                {
+                    installation.forgeVersion = outputs.isJsonNull() ? null : outputs.getAsString();
+                    return true;
+                });
     }
 
     private InstallStep.Result installModLoaders()
@@ -45,13 +50,11 @@ public class ClientInstaller extends Installer
 
         log.info("Found primary mod loader '{}', installing...", loader.id);
         String version = Splitter.on("-").limit(2).splitToList(loader.id).get(1);
-        String fullVersion = config.gameVersion + "-" + version;
-        String fullName = "forge-" + fullVersion;
         log.info("Downloading Forge Client Installer v{}...", version);
-        File installerFile = new File(config.tmpDirectory, "installers/forge-" + version + ".jar");
+        File installerFile = forgeInstallerFile(version);
         try
         {
-            if (!api.downloadFile(api.getURI("files.minecraftforge.net", "/maven/net/minecraftforge/forge/" + fullVersion + "/" + fullName + "-installer.jar", null), installerFile, 3))
+            if (!download(forgeInstallerUri(version), installerFile))
             {
                 log.error("Could not download required Forge installer, aborting!");
                 return FAILURE;
@@ -0,0 +1,291 @@
+package de.mineformers.cursesync.sync.installer;
+
+import com.google.common.base.Stopwatch;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.gson.JsonElement;
+import de.mineformers.cursesync.sync.progress.ProgressEvent;
+import de.mineformers.cursesync.sync.progress.ProgressPublisher;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.ThreadContext;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * A set of {@link InstallStep}s connected through the resources they require and produce.
+ * Steps are executed as soon as all of their inputs are available, so independent steps run concurrently.
+ * <p>
+ * The semantics of the step results are kept from the strictly sequential execution:
+ * <ul>
+ * <li>{@code SUCCESS} makes the step's outputs available.</li>
+ * <li>{@code SKIP_NEXT} makes the outputs available, but the steps directly consuming them are skipped.</li>
+ * <li>{@code FAILURE} fails the whole graph, no further steps will be started.</li>
+ * </ul>
+ * A step may also {@link #publish(String) publish} one of its outputs before it is done, so consumers can already start.
+ * <p>
+ * Steps with a {@link Node#checkpoint checkpoint} are recorded in a {@link CheckpointJournal} once they succeed.
+ * If the journal already contains such a step, its outputs are restored instead of running it again.
+ * <p>
+ * The start and end of every step are reported to the graph's {@link ProgressPublisher}, if it has one.
+ */
+public class InstallGraph
+{
+    private final List<Node> nodes = Lists.newArrayList();
+    private final Map<String, CompletableFuture<State>> resources = Maps.newConcurrentMap();
+    private volatile Map<String, State> results = ImmutableMap.of();
+    @Nullable
+    private ProgressPublisher progress;
+
+    @Nonnull
+    public Node add(@Nonnull String name, @Nonnull InstallStep step)
+    {
+        Node node = new Node(name, step);
+        nodes.add(node);
+        return node;
+    }
+
+    /**
+     * Reports step progress and failures to the given publisher.
+     */
+    @Nonnull
+    public InstallGraph reportTo(@Nullable ProgressPublisher progress)
+    {
+        this.progress = progress;
+        return this;
+    }
+
+    /**
+     * Executes all steps in the graph, logging a summary in declaration order once all of them are done.
+     *
+     * @return true if no step failed
+     */
+    public boolean execute(@Nonnull Logger log, @Nullable CheckpointJournal journal)
+    {
+        return execute(log, journal, null);
+    }
+
+    /**
+     * Executes only the steps required for producing the given resources.
+     *
+     * @param targets the resources to produce, all steps are executed if null
+     * @return true if no step failed
+     */
+    public boolean execute(@Nonnull Logger log, @Nullable CheckpointJournal journal, @Nullable Set<String> targets)
+    {
+        validate();
+        List<Node> nodes = targets == null ? this.nodes : requiredNodes(targets);
+        ExecutorService pool = Executors.newCachedThreadPool(new ThreadFactoryBuilder()
+                .setNameFormat("install-step-%d")
+                .setDaemon(true)
+                .build());
+        Map<Node, CompletableFuture<State>> states = Maps.newConcurrentMap();
+        Map<Node, Long> durations = Maps.newConcurrentMap();
+        CompletableFuture<?> failure = new CompletableFuture<>();
+        resources.clear();
+        nodes.forEach(node -> node.outputs.forEach(output -> resources.put(output, new CompletableFuture<>())));
+        try
+        {
+            for (Node node : nodes)
+            {
+                List<CompletableFuture<State>> inputs = node.inputs.stream().map(resources::get).collect(Collectors.toList());
+                CompletableFuture<State> state = CompletableFuture.allOf(inputs.toArray(new CompletableFuture[inputs.size()])).thenApplyAsync(v ->
+                {
+                    if (failure.isDone() || inputs.stream().anyMatch(i -> !i.join().available()))
+                        return report(node, State.CANCELLED, 0);
+                    if (inputs.stream().anyMatch(i -> i.join() == State.SKIP_NEXT))
+                        return report(node, State.SKIPPED, 0);
+                    State result = run(log, journal, node, durations);
+                    if (result == State.FAILURE)
+                        failure.complete(null);
+                    return report(node, result, durations.get(node));
+                }, pool);
+                state.thenAccept(result -> node.outputs.forEach(output -> resources.get(output).complete(result)));
+                states.put(node, state);
+            }
+            CompletableFuture.allOf(states.values().toArray(new CompletableFuture[states.size()])).join();
+        }
+        finally
+        {
+            pool.shutdown();
+        }
+        log.info("Installation step summary:");
+        ImmutableMap.Builder<String, State> results = ImmutableMap.builder();
+        for (Node node : nodes)
+        {
+            State state = states.get(node).join();
+            results.put(node.name, state);
+            log.info(" - {}: {}{}", node.name, state.toString().toLowerCase(),
+                    durations.containsKey(node) ? " (" + durations.get(node) + "ms)" : "");
+        }
+        this.results = results.build();
+        return !failure.isDone();
+    }
+
+    /**
+     * @return the state of every step of the last execution in declaration order
+     */
+    @Nonnull
+    public Map<String, State> results()
+    {
+        return results;
+    }
+
+    /**
+     * Makes an output of the currently running step available to its consumers before the step itself is done.
+     * The step's own result will not affect consumers started this way anymore.
+     */
+    public void publish(@Nonnull String resource)
+    {
+        CompletableFuture<State> future = resources.get(resource);
+        if (future == null)
+            throw new IllegalStateException("'" + resource + "' is not produced by any step of a running graph");
+        future.complete(State.SUCCESS);
+    }
+
+    private State run(Logger log, @Nullable CheckpointJournal journal, Node node, Map<Node, Long> durations)
+    {
+        ThreadContext.put("step", node.name);
+        if (progress != null)
+            progress.publish(new ProgressEvent.StepStarted(node.name));
+        Stopwatch stopwatch = Stopwatch.createStarted();
+        try
+        {
+            boolean checkpointed = journal != null && node.save != null;
+            if (checkpointed)
+            {
+                JsonElement outputs = journal.outputs(node.name);
+                if (outputs != null && node.restore.test(outputs))
+                {
+                    log.info("Step was completed by an earlier run, resuming after it.");
+                    return State.RESTORED;
+                }
+            }
+            InstallStep.Result result = node.step.execute();
+            if (checkpointed && result == InstallStep.Result.SUCCESS)
+                journal.record(node.name, node.save.get());
+            return result == InstallStep.Result.FAILURE ? State.FAILURE :
+                    result == InstallStep.Result.SKIP_NEXT ? State.SKIP_NEXT : State.SUCCESS;
+        }
+        catch (RuntimeException e)
+        {
+            log.error("Unexpected exception during installation step, aborting!", e);
+            if (progress != null)
+                progress.publish(new ProgressEvent.Failure(node.name, "Unexpected exception during installation step", e));
+            return State.FAILURE;
+        }
+        finally
+        {
+            durations.put(node, stopwatch.elapsed(TimeUnit.MILLISECONDS));
+            ThreadContext.remove("step");
+        }
+    }
+
+    private State report(Node node, State state, long millis)
+    {
+        if (progress != null)
+            progress.publish(new ProgressEvent.StepFinished(node.name, state, millis));
+        return state;
+    }
+
+    private List<Node> requiredNodes(Set<String> targets)
+    {
+        Set<String> required = Sets.newHashSet(targets);
+        List<Node> result = Lists.newArrayList();
+        for (Node node : Lists.reverse(this.nodes))
+        {
+            if (node.outputs.stream().anyMatch(required::contains))
+            {
+                required.addAll(node.inputs);
+                result.add(0, node);
+            }
+        }
+        return result;
+    }
+
+    private void validate()
+    {
+        Set<String> produced = Sets.newHashSet();
+        for (Node node : nodes)
+        {
+            for (String input : node.inputs)
+            {
+                if (!produced.contains(input))
+                    throw new IllegalStateException("Step '" + node.name + "' requires '" + input + "' which no earlier step produces");
+            }
+            for (String output : node.outputs)
+            {
+                if (!produced.add(output))
+                    throw new IllegalStateException("'" + output + "' is produced by more than one step");
+            }
+        }
+    }
+
+    public enum State
+    {
+        SUCCESS, RESTORED, SKIP_NEXT, SKIPPED, FAILURE, CANCELLED;
+
+        boolean available()
+        {
+            return this != FAILURE && this != CANCELLED;
+        }
+    }
+
+    public static class Node
+    {
+        public final String name;
+        private final InstallStep step;
+        private Set<String> inputs = ImmutableSet.of();
+        private Set<String> outputs = ImmutableSet.of();
+        private Supplier<JsonElement> save;
+        private Predicate<JsonElement> restore;
+
+        private Node(String name, InstallStep step)
+        {
+            this.name = name;
+            this.step = step;
+        }
+
+        @Nonnull
+        public Node requires(String... resources)
+        {
+            inputs = ImmutableSet.<String>builder().addAll(inputs).add(resources).build();
+            return this;
+        }
+
+        @Nonnull
+        public Node produces(String... resources)
+        {
+            outputs = ImmutableSet.<String>builder().addAll(outputs).add(resources).build();
+            return this;
+        }
+
+        /**
+         * Makes the step resumable.
+         *
+         * @param save    supplies the step's outputs after it succeeded
+         * @param restore restores recorded outputs, returning false if the step has to run again nonetheless
+         */
+        @Nonnull
+        public Node checkpoint(@Nonnull Supplier<JsonElement> save, @Nonnull Predicate<JsonElement> restore)
+        {
+            this.save = save;
+            this.restore = restore;
+            return this;
+        }
+    }
+}
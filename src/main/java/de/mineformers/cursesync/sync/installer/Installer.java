@@ -1,16 +1,34 @@
 package de.mineformers.cursesync.sync.installer;
 
+import com.google.common.base.Joiner;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.hash.HashCode;
+import com.google.common.reflect.TypeToken;
+import com.google.gson.JsonNull;
 import com.google.gson.JsonParseException;
 import com.google.gson.stream.JsonWriter;
 import com.google.inject.Inject;
 import de.mineformers.cursesync.CurseSync;
+import de.mineformers.cursesync.sync.ChecksumIndex;
+import de.mineformers.cursesync.sync.ChecksumService;
 import de.mineformers.cursesync.sync.CurseAPI;
+import de.mineformers.cursesync.sync.ModPrefetcher;
+import de.mineformers.cursesync.sync.ResourceGovernor;
+import de.mineformers.cursesync.sync.SnapshotStore;
+import de.mineformers.cursesync.sync.TransferStats;
 import de.mineformers.cursesync.sync.mode.FileStrategy;
+import de.mineformers.cursesync.sync.mode.Mode;
 import de.mineformers.cursesync.sync.model.*;
+import de.mineformers.cursesync.sync.progress.ProgressEvent;
+import de.mineformers.cursesync.sync.progress.ProgressPublisher;
+import de.mineformers.cursesync.util.FileTrees;
 import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.FilenameUtils;
 import org.apache.logging.log4j.Level;
 import org.apache.logging.log4j.Logger;
 import org.apache.logging.log4j.message.FormattedMessageFactory;
@@ -20,14 +38,20 @@ import javax.annotation.Nullable;
 import java.io.*;
 import java.net.URI;
 import java.net.URISyntaxException;
-import java.nio.file.Paths;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
+import java.util.zip.CRC32;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
 
@@ -35,6 +59,21 @@ import static de.mineformers.cursesync.sync.installer.InstallStep.Result.*;
 
 public abstract class Installer
 {
+    protected static final String PACK_ARCHIVE = "pack-archive";
+    protected static final String PACK_FILES = "pack-files";
+    protected static final String MANIFEST = "manifest";
+    protected static final String MOD_FILES = "mod-files";
+    protected static final String OUTPUT_DIRECTORY = "output-directory";
+    protected static final String MOD_LOADER_INSTALLER = "mod-loader-installer";
+    protected static final String MOD_LOADER = "mod-loader";
+    protected static final String MOD_LIST = "mod-list";
+    protected static final String OVERRIDE_CHECKSUMS = "override-checksums";
+    protected static final String OVERRIDES = "overrides";
+    /**
+     * Extensions of overrides which games only read, e.g. archives and assets. Everything else, e.g. configuration
+     * files, may be rewritten in place and is never shared between installations.
+     */
+    private static final Set<String> LINKED_EXTENSIONS = ImmutableSet.of("jar", "zip", "litemod", "png", "ogg");
     @Inject
     protected CurseSync.Configuration config;
     @Inject
@@ -47,88 +86,890 @@ public abstract class Installer
     protected FileStrategy strategy;
     @Inject
     protected ExecutorService executor;
+    @Inject
+    protected ModPrefetcher prefetcher;
+    @Inject
+    protected TransferStats stats;
+    @Inject
+    protected ProgressPublisher progress;
+    @Inject
+    protected ResourceGovernor governor;
+    @Inject
+    protected ChecksumService checksums;
+    @Inject
+    protected ChecksumIndex checksumIndex;
     protected CurseProject project;
     protected ProjectVersion version;
     protected PackManifest manifest;
-    private List<InstallStep> steps = Lists.newArrayList();
+    protected List<FileOverride> overrideChecksums;
+    /**
+     * The root of the pack's contents, either the unpacked pack directory or the root of the pack archive itself.
+     */
+    protected Path packRoot;
+    private FileSystem packArchive;
+    @Inject
+    private PackCache packCache;
+    private CheckpointJournal checkpoints;
+    private InstallGraph graph = new InstallGraph();
+    private final AtomicInteger hashedFiles = new AtomicInteger();
+    /**
+     * The actual output directory while a staged installation runs in its staging directory, null otherwise.
+     */
+    private File liveOutput;
+    /**
+     * The precomputed plan to install from, null if everything is resolved through the API.
+     */
+    private PlanFile plan;
+    /**
+     * Where the pack's contents come from, set up in {@link #init(CurseProject)}.
+     */
+    private PackSource source = PackSource.CURSEFORGE;
+    /**
+     * The algorithm the override checksums of this installation are calculated with, the plan's one if there is a plan.
+     */
+    private ChecksumAlgorithm algorithm = ChecksumAlgorithm.DEFAULT;
+
+    /**
+     * Installs from a precomputed plan, must be called before {@link #init(CurseProject)} with the plan's project.
+     * Download URLs and override checksums are taken from the plan instead of the API and the pack contents.
+     */
+    public void usePlan(@Nonnull PlanFile plan)
+    {
+        this.plan = plan;
+    }
 
-    public void init(@Nonnull CurseProject project)
+    /**
+     * Selects the version to install and sets up the installation graph.
+     *
+     * @return false if the project has no version matching the configuration
+     */
+    public boolean init(@Nonnull CurseProject project)
     {
         this.project = project;
-        version = project.versions.get(config.gameVersion).stream().filter(v -> v.name.contains(config.projectVersion != null ? config.projectVersion : "")).findFirst().get();
-        steps.add(this::downloadPackFile);
-        steps.add(this::unzipPackFile);
-        steps.add(this::loadManifest);
-        steps.add(this::downloadMods);
-        steps.add(this::prepareDirectory);
-        steps.addAll(constructSteps());
-        steps.add(this::createModList);
-        steps.add(this::copyOverrides);
-        steps.add(this::saveInstallation);
+        source = PackSource.of(config.packSource);
+        algorithm = plan != null ? plan.algorithm() : ChecksumAlgorithm.orDefault(config.checksumAlgorithm);
+        version = selectVersion(project, config);
+        if (version == null)
+        {
+            log.error("The pack has no version for game version '{}' matching '{}', aborting!", config.gameVersion, config.projectVersion != null ? config.projectVersion : "any");
+            return false;
+        }
+        checkpoints = new CheckpointJournal(log, checkpointFile(), checkpointInputs());
+        graph.reportTo(progress);
+        if (source.kind() == PackSource.Kind.DIRECTORY)
+        {
+            graph.add("openPackDirectory", this::openPackDirectory).produces(PACK_FILES);
+            graph.add("loadManifest", this::loadManifest).requires(PACK_FILES).produces(MANIFEST);
+        }
+        else if (source.kind() == PackSource.Kind.ARCHIVE)
+        {
+            graph.add("locatePackFile", this::locatePackFile).produces(PACK_ARCHIVE);
+            if (config.directArchive)
+                graph.add("openPackFile", this::openPackFile).requires(PACK_ARCHIVE).produces(PACK_FILES);
+            else
+                graph.add("unzipPackFile", this::unzipPackFile).requires(PACK_ARCHIVE).produces(PACK_FILES);
+            graph.add("loadManifest", this::loadManifest).requires(PACK_FILES).produces(MANIFEST);
+        }
+        // Plans verify the pack file before it is unpacked, so it cannot be streamed
+        else if (config.streamPack && !config.directArchive && plan == null)
+        {
+            graph.add("streamPackFile", this::streamPackFile).produces(PACK_FILES, MANIFEST);
+        }
+        else
+        {
+            graph.add("downloadPackFile", this::downloadPackFile).produces(PACK_ARCHIVE);
+            if (config.directArchive)
+                graph.add("openPackFile", this::openPackFile).requires(PACK_ARCHIVE).produces(PACK_FILES);
+            else
+                graph.add("unzipPackFile", this::unzipPackFile).requires(PACK_ARCHIVE).produces(PACK_FILES);
+            graph.add("loadManifest", this::loadManifest).requires(PACK_FILES).produces(MANIFEST);
+        }
+        graph.add("downloadMods", this::downloadMods).requires(MANIFEST).produces(MOD_FILES)
+                .checkpoint(() -> CurseSync.GSON.toJsonTree(acceptedMods().map(Mod::dependencyString).collect(Collectors.toList())),
+                        outputs -> acceptedMods().allMatch(mod -> deferred(mod) || modFile(mod).exists()));
+        graph.add("hashOverrides", this::hashOverrides).requires(PACK_FILES, MANIFEST).produces(OVERRIDE_CHECKSUMS)
+                .checkpoint(() -> CurseSync.GSON.toJsonTree(overrideChecksums), outputs ->
+                {
+                    overrideChecksums = CurseSync.GSON.fromJson(outputs, new TypeToken<List<FileOverride>>()
+                    {
+                    }.getType());
+                    return overrideChecksums != null;
+                });
+        graph.add("downloadModLoader", this::downloadModLoader).requires(MANIFEST).produces(MOD_LOADER_INSTALLER);
+        // Nothing touches the output directory before everything was fetched and hashed, so failed downloads leave it intact
+        graph.add("prepareDirectory", this::prepareDirectory).requires(PACK_FILES, MANIFEST, MOD_FILES, OVERRIDE_CHECKSUMS).produces(OUTPUT_DIRECTORY)
+                .checkpoint(() -> JsonNull.INSTANCE, outputs -> true);
+        constructSteps(graph);
+        graph.add("createModList", this::createModList).requires(MOD_FILES, OUTPUT_DIRECTORY).produces(MOD_LIST)
+                .checkpoint(() -> JsonNull.INSTANCE, outputs -> true);
+        graph.add("copyOverrides", this::copyOverrides).requires(OVERRIDE_CHECKSUMS, OUTPUT_DIRECTORY).produces(OVERRIDES)
+                .checkpoint(() -> JsonNull.INSTANCE, outputs ->
+                {
+                    installation.overrides = overrideChecksums;
+                    installation.checksumAlgorithm = algorithm;
+                    return true;
+                });
+        graph.add("saveInstallation", this::saveInstallation).requires(MOD_LOADER, MOD_LIST, OVERRIDES);
+        return true;
     }
 
-    protected abstract List<InstallStep> constructSteps();
+    /**
+     * @return the newest version of the project matching the configured game version and version filter
+     */
+    @Nullable
+    public static ProjectVersion selectVersion(@Nonnull CurseProject project, @Nonnull CurseSync.Configuration config)
+    {
+        return project.versions.get(config.gameVersion).stream()
+                .filter(v -> v.name.contains(config.projectVersion != null ? config.projectVersion : ""))
+                .findFirst().orElse(null);
+    }
+
+    /**
+     * Adds the side specific steps to the installation graph.
+     * They must produce {@link #MOD_LOADER}, all resources up to {@link #OUTPUT_DIRECTORY} are available.
+     */
+    protected abstract void constructSteps(InstallGraph graph);
 
     protected abstract boolean acceptsMod(Mod mod);
 
     public boolean execute()
     {
-        return strategy.canInstall() && steps.stream().sequential().reduce(SUCCESS, (acc, elem) ->
+        if (!strategy.canInstall())
+            return false;
+        boolean success;
+        if (config.staged)
+        {
+            success = executeStaged();
+        }
+        else
+        {
+            try
+            {
+                success = graph.execute(log, checkpoints);
+            }
+            finally
+            {
+                closePackArchive();
+            }
+        }
+        if (!success)
+            return false;
+        checkpoints.clear();
+        if (config.snapshots > 0 && config.output != null)
+            new SnapshotStore(log, config.output).take(version.name, config.snapshots);
+        return true;
+    }
+
+    /**
+     * Runs the installation in a hard linked copy of the output directory and swaps it in once everything succeeded.
+     * The steps replace files instead of modifying them in place and the Forge installer runs in a directory of its own,
+     * so the live directory is never affected through the shared links.
+     * <p>
+     * The live directory may stay in use meanwhile. Files the game creates, replaces or deletes in it are carried over
+     * into the staging directory right before the swap, see {@link StagingSnapshot}. Only changes made in the short
+     * moment between carrying them over and the swap itself end up in the previous directory alone.
+     */
+    private boolean executeStaged()
+    {
+        File live = config.output;
+        if (live == null)
+        {
+            log.error("Output directory unexpectedly was null!");
+            return false;
+        }
+        File staging = new File(live.getParentFile(), live.getName() + ".staging");
+        File previous = new File(live.getParentFile(), live.getName() + ".previous");
+        StagingSnapshot snapshot = prepareStaging(live, staging);
+        if (snapshot == null)
+            return false;
+        boolean success;
+        liveOutput = live;
+        config.output = staging;
+        try
+        {
+            success = graph.execute(log, checkpoints);
+        }
+        finally
+        {
+            config.output = live;
+            liveOutput = null;
+            closePackArchive();
+        }
+        if (!success)
+        {
+            log.error("Staged installation failed, the output directory was left untouched.");
+            return false;
+        }
+        // Overwriting installations start from scratch, nothing is carried over into them
+        if (config.mode != Mode.INSTALL_OVERWRITE)
+        {
+            try
+            {
+                log.info("Carrying over changes made to the output directory during the installation...");
+                int synced = snapshot.resync(log, live.toPath(), staging.toPath());
+                if (synced > 0)
+                    log.info("Carried over {} changed files.", synced);
+            }
+            catch (IOException e)
+            {
+                log.error(new FormattedMessageFactory().newMessage("Failed to carry over changes of the output directory, the new installation was left in '{}'.", staging.getAbsolutePath()), e);
+                return false;
+            }
+        }
+        if (!switchOver(live.toPath(), staging.toPath(), previous.toPath()))
+            return false;
+        if (!stagingSnapshotFile().delete() && stagingSnapshotFile().exists())
+            log.warn("Failed to delete the state of the staging directory.");
+        return true;
+    }
+
+    /**
+     * @return the state of the directories when the staging directory was created or null if it could not be set up
+     */
+    @Nullable
+    private StagingSnapshot prepareStaging(File live, File staging)
+    {
+        if (staging.isDirectory() && !checkpoints.isEmpty())
+        {
+            StagingSnapshot snapshot = StagingSnapshot.load(log, stagingSnapshotFile());
+            if (snapshot != null)
+            {
+                log.info("Resuming installation in existing staging directory '{}'.", staging.getAbsolutePath());
+                return snapshot;
+            }
+        }
+        // Checkpoints of steps which worked on a staging directory that is gone are meaningless
+        if (!checkpoints.isEmpty())
+            checkpoints.clear();
+        try
+        {
+            FileTrees.deleteTree(staging.toPath());
+            if (live.isDirectory())
+            {
+                log.info("Linking output directory into staging directory '{}'...", staging.getAbsolutePath());
+                int copied = FileTrees.linkTree(live.toPath(), staging.toPath());
+                if (copied > 0)
+                    log.warn("{} files could not be hard linked and were copied instead.", copied);
+            }
+            else
+            {
+                Files.createDirectories(staging.toPath());
+            }
+            StagingSnapshot snapshot = StagingSnapshot.take(live.toPath(), staging.toPath());
+            snapshot.save(stagingSnapshotFile());
+            return snapshot;
+        }
+        catch (IOException e)
+        {
+            log.error(new FormattedMessageFactory().newMessage("Failed to set up staging directory '{}', aborting!", staging.getAbsolutePath()), e);
+            return null;
+        }
+    }
+
+    private boolean switchOver(Path live, Path staging, Path previous)
+    {
+        log.info("Switching output directory to the new installation...");
+        try
+        {
+            if (Files.exists(previous))
+            {
+                log.warn("Deleting '{}', which was kept from the last installation or rollback.", previous);
+                FileTrees.deleteTree(previous);
+            }
+            if (Files.exists(live))
+                Files.move(live, previous, StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (IOException e)
+        {
+            log.error(new FormattedMessageFactory().newMessage("Failed to move the output directory aside, the new installation was left in '{}'.", staging), e);
+            return false;
+        }
+        try
         {
-            if (acc == FAILURE) return FAILURE;
-            else if (acc == SKIP_NEXT) return SUCCESS;
-            else return elem.execute();
-        }, (a, b) -> b) != FAILURE;
+            Files.move(staging, live, StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (IOException e)
+        {
+            log.error(new FormattedMessageFactory().newMessage("Failed to move the new installation into place, it was left in '{}'.", staging), e);
+            try
+            {
+                if (Files.exists(previous) && !Files.exists(live))
+                    Files.move(previous, live, StandardCopyOption.ATOMIC_MOVE);
+            }
+            catch (IOException e1)
+            {
+                log.error(new FormattedMessageFactory().newMessage("Failed to restore the old installation, it was left in '{}'!", previous), e1);
+            }
+            return false;
+        }
+        log.info("Switched to the new installation, the old one was kept in '{}'.", previous);
+        return true;
+    }
+
+    /**
+     * Downloads the pack and all required mods into the temporary directory and the mod repository.
+     * The output directory is not touched, a later installation of the same version will find everything in place.
+     */
+    public boolean prefetch()
+    {
+        try
+        {
+            return graph.execute(log, null, ImmutableSet.of(MOD_FILES, OVERRIDE_CHECKSUMS));
+        }
+        finally
+        {
+            closePackArchive();
+        }
+    }
+
+    /**
+     * Prefetches the pack and resolves everything an installation of it needs into a portable plan.
+     * Overrides are hashed without any filter, so the plan works for installations with any override filter.
+     * The pack file and the mods of both sides are downloaded and hashed, so installations of the plan can verify them.
+     *
+     * @return the plan or null if the pack could not be resolved completely
+     */
+    @Nullable
+    public PlanFile exportPlan()
+    {
+        if (!OverrideFilter.isEmpty(config.overrideFilter))
+        {
+            log.error("Plans can only be exported without an override filter, aborting!");
+            return null;
+        }
+        if (source.isLocal() || config.modSource != null)
+        {
+            log.error("Plans can only be exported for packs and mods downloaded from CurseForge, aborting!");
+            return null;
+        }
+        if (!prefetch())
+            return null;
+        log.info("Downloading and hashing {} mods of both sides...", manifest.mods.size());
+        List<PlanFile.ModFile> mods = sequence(manifest.mods.stream().map(mod -> CompletableFuture.supplyAsync(() ->
+        {
+            String slug = api.getModSlug(mod.projectId);
+            if (slug == null)
+            {
+                log.error("Could not get slug for project id {}!", mod.projectId);
+                return null;
+            }
+            try
+            {
+                URI uri = api.getCFURI("/projects/" + slug + "/files/" + mod.fileId + "/download", null);
+                File file = modFile(mod);
+                if (!download(uri, file))
+                {
+                    log.error("Could not download file {} of mod id {}!", mod.fileId, mod.projectId);
+                    return null;
+                }
+                return new PlanFile.ModFile(mod.projectId, mod.fileId, uri.toString(), file.length(), checksums.checksum(file.toPath(), algorithm));
+            }
+            catch (URISyntaxException | IOException e)
+            {
+                log.error(new FormattedMessageFactory().newMessage("Failed to resolve file {} of mod id {}!", mod.fileId, mod.projectId), e);
+                return null;
+            }
+        }, executor)).collect(Collectors.toList())).join();
+        if (mods.contains(null))
+            return null;
+        try
+        {
+            URI packUri = packUri();
+            File packFile = packFile();
+            if (!download(packUri, packFile))
+            {
+                log.error("Could not download the pack file, aborting!");
+                return null;
+            }
+            return new PlanFile(config.projectSlug, config.gameVersion, version, packUri.toString(), packFile.length(),
+                    checksums.checksum(packFile.toPath(), algorithm), mods, manifest.overridesPath, overrideChecksums, algorithm);
+        }
+        catch (IOException e)
+        {
+            log.error("Failed to hash the pack file, aborting!", e);
+            return null;
+        }
+        catch (URISyntaxException e)
+        {
+            log.error("Failed to parse modpack url, aborting!", e);
+            return null;
+        }
+    }
+
+    /**
+     * Resolves the pack version like {@link #exportPlan()} and bundles it with the pack file, the mods of both sides and
+     * the Forge installer, so it can be installed without network access.
+     * The pack must not be streamed, since the bundle needs the pack file.
+     */
+    public boolean exportBundle(@Nonnull File bundle)
+    {
+        PlanFile plan = exportPlan();
+        if (plan == null)
+            return false;
+        // The plan downloaded the pack file and all mods already
+        Map<String, File> files = Maps.newLinkedHashMap();
+        files.put(OfflineBundle.PACK, packFile());
+        for (Mod mod : manifest.mods)
+            files.put(OfflineBundle.MODS + mod.artifactPath("jar"), modFile(mod));
+        String forgeVersion = forgeVersion();
+        if (forgeVersion != null)
+        {
+            File installerFile = forgeInstallerFile(forgeVersion);
+            try
+            {
+                if (!download(forgeInstallerUri(forgeVersion), installerFile))
+                {
+                    log.error("Could not download the Forge installer for the bundle, aborting!");
+                    return false;
+                }
+            }
+            catch (URISyntaxException e)
+            {
+                log.error("Could not parse Forge installer URL, aborting!", e);
+                return false;
+            }
+            files.put(OfflineBundle.INSTALLERS + installerFile.getName(), installerFile);
+        }
+        return OfflineBundle.write(log, bundle, plan, files);
+    }
+
+    /**
+     * @return the plan stored in the given file or null if it could not be read
+     */
+    @Nullable
+    public static PlanFile loadPlan(@Nonnull Logger log, @Nonnull File file)
+    {
+        try (Reader reader = new FileReader(file))
+        {
+            PlanFile plan = CurseSync.GSON.fromJson(reader, PlanFile.class);
+            if (plan == null || plan.format != PlanFile.FORMAT)
+            {
+                log.error("Plan file '{}' is empty or has an unsupported format!", file.getAbsolutePath());
+                return null;
+            }
+            return plan;
+        }
+        catch (IOException | JsonParseException e)
+        {
+            log.error(new FormattedMessageFactory().newMessage("Failed to read plan file '{}'!", file.getAbsolutePath()), e);
+            return null;
+        }
+    }
+
+    public static boolean savePlan(@Nonnull Logger log, @Nonnull PlanFile plan, @Nonnull File file)
+    {
+        try
+        {
+            File parent = file.getAbsoluteFile().getParentFile();
+            if (!parent.exists() && !parent.mkdirs())
+            {
+                log.error("Failed to create required directories for plan file '{}'!", file.getAbsolutePath());
+                return false;
+            }
+            File tmpFile = new File(parent, file.getName() + ".tmp");
+            try (JsonWriter writer = new JsonWriter(new BufferedWriter(new FileWriter(tmpFile))))
+            {
+                writer.setIndent("  ");
+                CurseSync.GSON.toJson(plan, PlanFile.class, writer);
+            }
+            FileTrees.replace(tmpFile.toPath(), file.toPath());
+            log.info("Saved plan for version '{}' of '{}' to '{}'.", plan.version.name, plan.projectSlug, file.getAbsolutePath());
+            return true;
+        }
+        catch (IOException e)
+        {
+            log.error(new FormattedMessageFactory().newMessage("Failed to write plan file '{}'!", file.getAbsolutePath()), e);
+            return false;
+        }
+    }
+
+    /**
+     * @return the state of every step of the last execution
+     */
+    @Nonnull
+    public Map<String, InstallGraph.State> stepResults()
+    {
+        return graph.results();
+    }
+
+    private void closePackArchive()
+    {
+        if (packArchive != null)
+        {
+            try
+            {
+                packArchive.close();
+            }
+            catch (IOException e)
+            {
+                log.warn("Failed to close modpack file.", e);
+            }
+        }
+    }
+
+    /**
+     * Determines what an installation would change without touching the output directory.
+     * The pack itself is downloaded into the temporary directory, since its contents are required for the comparison.
+     *
+     * @return the plan or null if it could not be determined
+     */
+    @Nullable
+    public UpdatePlan plan()
+    {
+        boolean wipe = config.mode == Mode.INSTALL_OVERWRITE;
+        List<FileOverride> oldOverrides = wipe || installation.overrides == null ? ImmutableList.of() : installation.overrides.stream()
+                .filter(o -> OverrideFilter.isEmpty(config.overrideFilter) || config.overrideFilter.matches(o.path))
+                .collect(Collectors.toList());
+        Map<String, HashCode> oldChecksums = oldOverrides.stream().collect(Collectors.toMap(o -> o.path, o -> o.checksum, (a, b) -> b));
+        Map<String, HashCode> newChecksums;
+        try
+        {
+            if (!strategy.canInstall() || !graph.execute(log, checkpoints, ImmutableSet.of(MANIFEST, OVERRIDE_CHECKSUMS)))
+                return null;
+            newChecksums = comparableChecksums(oldChecksums.keySet());
+            if (newChecksums == null)
+                return null;
+        }
+        finally
+        {
+            closePackArchive();
+        }
+        List<Mod> oldMods = wipe || installation.mods == null ? ImmutableList.of() : installation.mods.stream().filter(this::acceptsMod).collect(Collectors.toList());
+        Set<String> oldDeps = oldMods.stream().map(Mod::dependencyString).collect(Collectors.toSet());
+        Set<String> newDeps = acceptedMods().map(Mod::dependencyString).collect(Collectors.toSet());
+        Set<String> newPaths = overrideChecksums.stream().map(o -> o.path).collect(Collectors.toSet());
+        List<String> added = Lists.newArrayList();
+        List<String> changed = Lists.newArrayList();
+        for (FileOverride override : overrideChecksums)
+        {
+            if (!oldChecksums.containsKey(override.path))
+                added.add(override.path);
+            else if (!Objects.equals(oldChecksums.get(override.path), newChecksums.get(override.path)))
+                changed.add(override.path);
+        }
+        List<String> removed = oldOverrides.stream().map(o -> o.path).filter(p -> !newPaths.contains(p)).collect(Collectors.toList());
+        String oldForge = wipe ? null : installation.forgeVersion;
+        String newForge = forgeVersion();
+        boolean reinstallForge = newForge != null && (!Objects.equals(oldForge, newForge) || !Objects.equals(installation.gameVersion, config.gameVersion));
+        List<Mod> downloads = acceptedMods()
+                .filter(mod -> !modFile(mod).exists() && (mod.required || config.optionalMods != OptionalMods.ON_DEMAND))
+                .collect(Collectors.toList());
+        log.info("Determining size of {} mod files to download...", downloads.size());
+        List<Long> sizes = sequence(downloads.stream().map(mod -> CompletableFuture.supplyAsync(() ->
+        {
+            PlanFile.ModFile planned = plan == null ? null : plan.mod(mod);
+            if (planned != null)
+                return planned.size;
+            if (config.modSource != null)
+            {
+                File local = localModFile(mod);
+                return local.exists() ? local.length() : -1L;
+            }
+            String slug = api.getModSlug(mod.projectId);
+            try
+            {
+                return slug == null ? -1L : api.getContentLength(api.getCFURI("/projects/" + slug + "/files/" + mod.fileId + "/download", null));
+            }
+            catch (URISyntaxException e)
+            {
+                return -1L;
+            }
+        }, executor)).collect(Collectors.toList())).join();
+        return new UpdatePlan(wipe || installation.mods == null ? "none" : installation.versionName != null ? installation.versionName : "unknown", version.name,
+                acceptedMods().filter(mod -> !oldDeps.contains(mod.dependencyString())).collect(Collectors.toList()),
+                oldMods.stream().filter(mod -> !newDeps.contains(mod.dependencyString())).collect(Collectors.toList()),
+                added, changed, removed, overrideChecksums.size() - added.size() - changed.size(),
+                oldForge, newForge, reinstallForge, wipe,
+                downloads, sizes.stream().mapToLong(l -> Math.max(0, l)).sum(), sizes.stream().allMatch(l -> l >= 0),
+                stats.bytesPerSecond());
+    }
+
+    /**
+     * Determines the checksums of the new overrides which can be compared to the ones of the existing installation.
+     * If the installation was tracked with another algorithm, the overrides it shares with the pack are hashed again
+     * with that algorithm, so switching algorithms does not make every override look changed.
+     *
+     * @param paths the paths of the existing installation's overrides
+     * @return the checksums by path or null if the pack's overrides could not be hashed
+     */
+    @Nullable
+    private Map<String, HashCode> comparableChecksums(Set<String> paths)
+    {
+        ChecksumAlgorithm oldAlgorithm = ChecksumAlgorithm.orLegacy(installation.checksumAlgorithm);
+        if (oldAlgorithm == algorithm || paths.isEmpty())
+            return overrideChecksums.stream().collect(Collectors.toMap(o -> o.path, o -> o.checksum, (a, b) -> b));
+        log.info("The installation was tracked with {} checksums, comparing overrides with {} instead of {}.", oldAlgorithm, oldAlgorithm, algorithm);
+        List<String> shared = overrideChecksums.stream().map(o -> o.path).filter(paths::contains).collect(Collectors.toList());
+        Map<String, HashCode> result = Maps.newHashMap();
+        for (ChecksumService.Result hashed : checksums.hashFiles(overridesDirectory(), oldAlgorithm, shared))
+        {
+            if (hashed.error != null)
+            {
+                log.error(new FormattedMessageFactory().newMessage("Failed to calculate checksum of override {}!", hashed.path), hashed.error);
+                return null;
+            }
+            result.put(hashed.path, hashed.checksum);
+        }
+        return result;
+    }
+
+    private File checkpointFile()
+    {
+        String output = config.output == null ? "" : config.output.getAbsolutePath();
+        return new File(config.tmpDirectory, "checkpoints/" + DigestUtils.md5Hex(output) + ".json");
+    }
+
+    private File stagingSnapshotFile()
+    {
+        String output = liveOutput != null ? liveOutput.getAbsolutePath() : config.output == null ? "" : config.output.getAbsolutePath();
+        return new File(config.tmpDirectory, "checkpoints/" + DigestUtils.md5Hex(output) + "-staging.json");
+    }
+
+    /**
+     * Digest over everything that influences the installation, checkpoints are only reused if it matches.
+     * Overwriting installations ignore the existing installation and delete its file while running, so including the
+     * file would make every interrupted overwrite look like one with different inputs.
+     */
+    private String checkpointInputs()
+    {
+        String installationDigest = "none";
+        File installationFile = config.installationFile();
+        if (config.mode != Mode.INSTALL_OVERWRITE && installationFile.exists())
+        {
+            try (InputStream stream = new FileInputStream(installationFile))
+            {
+                installationDigest = DigestUtils.md5Hex(stream);
+            }
+            catch (IOException e)
+            {
+                log.warn("Failed to calculate digest of installation file, checkpoints will not be reused.", e);
+                installationDigest = "unknown-" + System.nanoTime();
+            }
+        }
+        return DigestUtils.md5Hex(Joiner.on('\n').useForNull("").join(
+                config.projectSlug, config.gameVersion, version.id, config.server, config.mode, config.output, config.staged, config.optionalMods,
+                config.overrideFilter == null ? null : config.overrideFilter.describe(), source.key(), config.modSource, algorithm, installationDigest));
+    }
+
+    /**
+     * @return the path of the pack's files relative to the temporary directory, without extension
+     */
+    private String packPath()
+    {
+        if (source.kind() == PackSource.Kind.ARCHIVE)
+            return "modpacks/local/" + source.key();
+        return "modpacks/" + config.projectSlug + "/" + version.id;
+    }
+
+    /**
+     * @return the pack file, either the local one or where the downloaded one is stored
+     */
+    private File packFile()
+    {
+        if (source.kind() == PackSource.Kind.ARCHIVE)
+            return source.file();
+        return new File(config.tmpDirectory, packPath() + ".zip");
+    }
+
+    /**
+     * Uses a local directory containing an already unpacked pack as is.
+     */
+    protected InstallStep.Result openPackDirectory()
+    {
+        File directory = source.file();
+        if (directory == null || !directory.isDirectory())
+        {
+            log.error("Local pack directory '{}' does not exist, aborting!", directory);
+            return FAILURE;
+        }
+        log.info("Using unpacked modpack from '{}'.", directory.getAbsolutePath());
+        packRoot = directory.toPath();
+        return SUCCESS;
+    }
+
+    /**
+     * Stands in for {@link #downloadPackFile()} with a local pack file, which is only unpacked again if it changed.
+     */
+    protected InstallStep.Result locatePackFile()
+    {
+        File packFile = source.file();
+        if (packFile == null || !packFile.isFile())
+        {
+            log.error("Local pack file '{}' does not exist, aborting!", packFile);
+            return FAILURE;
+        }
+        log.info("Using local modpack file '{}'.", packFile.getAbsolutePath());
+        if (config.directArchive)
+            return SUCCESS;
+        File packDirectory = new File(config.tmpDirectory, packPath());
+        Lock lock = packCache.lock(packDirectory);
+        lock.lock();
+        try
+        {
+            if (packCache.verify(packDirectory))
+            {
+                log.info("Found complete pack directory for the local pack file, skipping unpacking.");
+                packRoot = packDirectory.toPath();
+                return SKIP_NEXT;
+            }
+            return SUCCESS;
+        }
+        finally
+        {
+            lock.unlock();
+        }
     }
 
     protected InstallStep.Result downloadPackFile()
     {
         log.info("Modpack file is classified as '{}'. Downloading...", version.name);
-        String packPath = "modpacks/" + config.projectSlug + "/" + version.id;
-        File packDirectory = new File(config.tmpDirectory, packPath);
-        if (packDirectory.exists() && packDirectory.isDirectory())
+        File packDirectory = new File(config.tmpDirectory, packPath());
+        Lock lock = packCache.lock(packDirectory);
+        lock.lock();
+        try
         {
-            log.info("Found existing pack directory, assuming equivalence. Skipping download.");
-            return SKIP_NEXT;
+            if (packCache.verify(packDirectory))
+            {
+                log.info("Found complete pack directory, skipping download.");
+                packRoot = packDirectory.toPath();
+                return SKIP_NEXT;
+            }
+            try
+            {
+                URI uri = packUri();
+                File packFile = packFile();
+                if (!download(uri, packFile))
+                    return FAILURE;
+                return plan == null || verifyPlanned(packFile, plan.packChecksum) ? SUCCESS : FAILURE;
+            }
+            catch (URISyntaxException e)
+            {
+                log.error("Failed to parse modpack url, aborting!", e);
+                return FAILURE;
+            }
         }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    protected InstallStep.Result unzipPackFile()
+    {
+        log.info("Unpacking modpack file...");
+        File zipFile = packFile();
+        File packDirectory = new File(config.tmpDirectory, packPath());
+        Lock lock = packCache.lock(packDirectory);
+        lock.lock();
+        try
+        {
+            boolean result = unzip(zipFile, packDirectory);
+            if (result)
+            {
+                packRoot = packDirectory.toPath();
+                if (!source.isLocal())
+                {
+                    log.info("Pack was sucessfully unpacked, deleting zip file...");
+                    if (zipFile.exists() && !zipFile.delete())
+                    {
+                        log.warn("Failed to delete zip file.");
+                    }
+                }
+            }
+            return result ? SUCCESS : FAILURE;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Reads the pack's contents straight from the downloaded archive without unpacking it.
+     */
+    protected InstallStep.Result openPackFile()
+    {
+        log.info("Opening modpack file...");
+        File zipFile = packFile();
         try
         {
-            URI uri = api.getCFURI("/projects/" + config.projectNameSlug() + "/files/" + version.id + "/download", null);
-            boolean downloadResult = api.downloadFile(uri, new File(config.tmpDirectory, packPath + ".zip"), 3);
-            return downloadResult ? SUCCESS : FAILURE;
+            packArchive = FileSystems.newFileSystem(zipFile.toPath(), (ClassLoader) null);
+            packRoot = packArchive.getPath("/");
+            return SUCCESS;
         }
-        catch (URISyntaxException e)
+        catch (IOException e)
         {
-            log.error("Failed to parse modpack url, aborting!", e);
+            log.error("Failed to open modpack file, aborting!", e);
             return FAILURE;
         }
     }
 
-    protected InstallStep.Result unzipPackFile()
+    /**
+     * Downloads and extracts the modpack file in one go, publishing the manifest as soon as it has been extracted.
+     */
+    protected InstallStep.Result streamPackFile()
     {
-        log.info("Unpacking modpack file...");
-        String packPath = "modpacks/" + config.projectSlug + "/" + version.id;
-        File zipFile = new File(config.tmpDirectory, packPath + ".zip");
-        boolean result = unzip(zipFile, new File(config.tmpDirectory, packPath));
-        if (result)
+        File packDirectory = new File(config.tmpDirectory, packPath());
+        Lock lock = packCache.lock(packDirectory);
+        lock.lock();
+        try
         {
-            log.info("Pack was sucessfully unpacked, deleting zip file...");
-            if (!zipFile.delete())
+            packRoot = packDirectory.toPath();
+            if (packCache.verify(packDirectory))
+            {
+                log.info("Found complete pack directory, skipping download.");
+                return loadManifest();
+            }
+            log.info("Modpack file is classified as '{}'. Streaming and unpacking...", version.name);
+            try
+            {
+                URI uri = packUri();
+                List<CacheMarker.Entry> entries = Lists.newArrayList();
+                boolean result = api.streamFile(uri, 3, stream -> extract(new ZipInputStream(stream), packDirectory, entries, name ->
+                {
+                    if (manifest == null && Objects.equals(name, "manifest.json"))
+                    {
+                        // A broken manifest will not be fixed by streaming the pack again, stop without retrying
+                        if (loadManifest() == FAILURE)
+                            return false;
+                        // Only the downloads start early, the output directory waits for the complete pack files
+                        log.info("Pack manifest was extracted, starting downloads...");
+                        graph.publish(MANIFEST);
+                    }
+                    return true;
+                }));
+                if (!result)
+                {
+                    return FAILURE;
+                }
+                if (manifest == null)
+                {
+                    log.error("Pack manifest file 'manifest.json' could not be found in pack files. CurseSync does not support other pack formats!");
+                    return FAILURE;
+                }
+                return packCache.commit(packDirectory, entries) ? SUCCESS : FAILURE;
+            }
+            catch (URISyntaxException e)
             {
-                log.warn("Failed to delete zip file.");
+                log.error("Failed to parse modpack url, aborting!", e);
+                return FAILURE;
             }
         }
-        return result ? SUCCESS : FAILURE;
+        finally
+        {
+            lock.unlock();
+        }
     }
 
     protected InstallStep.Result loadManifest()
     {
-        String manifestPath = "modpacks/" + config.projectSlug + "/" + version.id + "/manifest.json";
-        try
+        try (Reader reader = Files.newBufferedReader(packRoot.resolve("manifest.json")))
         {
             log.info("Loading pack manifest file...");
-            manifest = CurseSync.GSON.fromJson(new FileReader(new File(config.tmpDirectory, manifestPath)), PackManifest.class);
+            manifest = CurseSync.GSON.fromJson(reader, PackManifest.class);
             log.debug("Successfully loaded pack manifest: {}", manifest);
+            checkpoints.bindManifest(DigestUtils.md5Hex(CurseSync.GSON.toJson(manifest)));
+            prefetcher.reconcile(manifest.mods);
             return SUCCESS;
         }
         catch (JsonParseException e)
@@ -136,11 +977,16 @@ public abstract class Installer
             log.error("Failed to parse Pack Manifest JSON. This might be due to a change in the file format.");
             return FAILURE;
         }
-        catch (FileNotFoundException e)
+        catch (NoSuchFileException e)
         {
             log.error("Pack manifest file 'manifest.json' could not be found in pack files. CurseSync does not support other pack formats!");
             return FAILURE;
         }
+        catch (IOException e)
+        {
+            log.error("Failed to read pack manifest file, aborting!", e);
+            return FAILURE;
+        }
     }
 
     protected InstallStep.Result downloadMods()
@@ -155,32 +1001,18 @@ public abstract class Installer
                         log.info("Mod with id {}, version {} is not required on this side, skipping file...", mod.projectId, mod.fileId);
                         return -1;
                     }
-                    File modPath = new File(installation.modRepository.getAbsolutePath() + "/" + mod.artifactPath("jar"));
-                    if (modPath.exists())
+                    if (deferred(mod))
                     {
-                        log.info("Mod with id {}, version {} was already downloaded, skipping file...", mod.projectId, mod.fileId);
+                        log.info("Mod with id {}, version {} is optional, not waiting for it...", mod.projectId, mod.fileId);
                         return -1;
                     }
-                    String slug = api.getModSlug(mod.projectId);
-                    if (slug == null)
-                    {
-                        log.error("Could not get slug for project id {}, skipping file...", mod.projectId);
-                        return mod.projectId;
-                    }
-                    log.info("Downloading file {} for mod {} (id: {})", mod.fileId, slug, mod.projectId);
-                    try
-                    {
-                        if (!api.downloadFile(api.getCFURI("/projects/" + slug + "/files/" + mod.fileId + "/download", null), modPath, 3))
-                        {
-                            return mod.projectId;
-                        }
-                    }
-                    catch (URISyntaxException e)
+                    File modPath = modFile(mod);
+                    if (modPath.exists())
                     {
-                        log.error("Could not parse download url, skipping file...");
-                        return mod.projectId;
+                        log.info("Mod with id {}, version {} was already downloaded, skipping file...", mod.projectId, mod.fileId);
+                        return verifyPlanned(mod, modPath) ? -1 : mod.projectId;
                     }
-                    return -1;
+                    return downloadMod(mod, modPath) ? -1 : mod.projectId;
                 }, executor)
         );
         try
@@ -200,6 +1032,208 @@ public abstract class Installer
         return SUCCESS;
     }
 
+    private URI packUri() throws URISyntaxException
+    {
+        if (plan != null)
+            return new URI(plan.packUrl);
+        return api.getCFURI("/projects/" + config.projectNameSlug() + "/files/" + version.id + "/download", null);
+    }
+
+    private boolean downloadMod(Mod mod, File modPath)
+    {
+        if (config.modSource != null)
+            return copyLocalMod(mod, modPath);
+        if (config.importBundle != null)
+        {
+            log.error("File {} of mod id {} is not contained in bundle '{}', refusing to download it!", mod.fileId, mod.projectId, config.importBundle.getAbsolutePath());
+            return false;
+        }
+        PlanFile.ModFile planned = plan == null ? null : plan.mod(mod);
+        if (planned != null)
+            return downloadPlannedMod(planned, modPath);
+        String slug = api.getModSlug(mod.projectId);
+        if (slug == null)
+        {
+            log.error("Could not get slug for project id {}, skipping file...", mod.projectId);
+            return false;
+        }
+        log.info("Downloading file {} for mod {} (id: {})", mod.fileId, slug, mod.projectId);
+        try
+        {
+            return download(api.getCFURI("/projects/" + slug + "/files/" + mod.fileId + "/download", null), modPath);
+        }
+        catch (URISyntaxException e)
+        {
+            log.error("Could not parse download url, skipping file...");
+            return false;
+        }
+    }
+
+    /**
+     * @return where the configured local mod source keeps the given mod, it uses the layout of the mod repository
+     */
+    private File localModFile(Mod mod)
+    {
+        return new File(config.modSource, mod.artifactPath("jar"));
+    }
+
+    /**
+     * Stands in for downloading a mod by copying it from the configured local mod source.
+     */
+    private boolean copyLocalMod(Mod mod, File modPath)
+    {
+        File local = localModFile(mod);
+        if (!local.isFile())
+        {
+            log.error("Local mod source does not contain file {} of mod id {} at '{}', skipping file...", mod.fileId, mod.projectId, local.getAbsolutePath());
+            return false;
+        }
+        log.info("Copying file {} for mod id {} from local mod source", mod.fileId, mod.projectId);
+        File parent = modPath.getParentFile();
+        if (!parent.exists() && !parent.mkdirs())
+        {
+            log.error("Failed to create directory '{}'!", parent.getAbsolutePath());
+            return false;
+        }
+        File partial = new File(parent, modPath.getName() + ".part");
+        try
+        {
+            Files.deleteIfExists(partial.toPath());
+            governor.copy(local.toPath(), partial.toPath());
+            Files.move(partial.toPath(), modPath.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            return true;
+        }
+        catch (IOException e)
+        {
+            log.error(new FormattedMessageFactory().newMessage("Failed to copy local mod file '{}'!", local.getAbsolutePath()), e);
+            return false;
+        }
+    }
+
+    private boolean downloadPlannedMod(PlanFile.ModFile mod, File modPath)
+    {
+        log.info("Downloading planned file {} for mod id {}", mod.fileId, mod.projectId);
+        try
+        {
+            if (!download(new URI(mod.url), modPath))
+                return false;
+        }
+        catch (URISyntaxException e)
+        {
+            log.error("Could not parse planned download url '{}', skipping file...", mod.url);
+            return false;
+        }
+        return verifyPlanned(modPath, mod.checksum);
+    }
+
+    /**
+     * @return true if there is no plan or the given mod file matches the plan's checksum
+     */
+    private boolean verifyPlanned(Mod mod, File modPath)
+    {
+        if (plan == null || config.modSource != null)
+            return true;
+        PlanFile.ModFile planned = plan.mod(mod);
+        if (planned == null)
+        {
+            log.error("File {} of mod id {} is not part of the plan!", mod.fileId, mod.projectId);
+            return false;
+        }
+        return verifyPlanned(modPath, planned.checksum);
+    }
+
+    /**
+     * Compares a file to the checksum the plan recorded for it, a mismatching file is deleted so it is fetched again.
+     */
+    private boolean verifyPlanned(File file, HashCode checksum)
+    {
+        try
+        {
+            if (Objects.equals(checksums.checksum(file.toPath(), algorithm), checksum))
+                return true;
+        }
+        catch (IOException e)
+        {
+            log.error(new FormattedMessageFactory().newMessage("Failed to verify file '{}'!", file.getAbsolutePath()), e);
+            return false;
+        }
+        log.error("File '{}' does not match the checksum of the plan, deleting it.", file.getAbsolutePath());
+        if (!file.delete())
+            log.warn("Failed to delete mismatching file '{}'.", file.getAbsolutePath());
+        return false;
+    }
+
+    /**
+     * @return true if the installation does not wait for the given mod to be downloaded
+     */
+    private boolean deferred(Mod mod)
+    {
+        return !mod.required && config.optionalMods != null && config.optionalMods != OptionalMods.EAGER;
+    }
+
+    /**
+     * @return the mods of the manifest which are actually installed, i.e. all of them except for missing deferred ones
+     */
+    private List<Mod> installedMods()
+    {
+        return manifest.mods.stream()
+                .filter(mod -> !acceptsMod(mod) || !deferred(mod) || modFile(mod).exists())
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * @return true if there are optional mods left for {@link #fetchDeferredMods()} to download
+     */
+    public boolean hasDeferredMods()
+    {
+        return config.optionalMods == OptionalMods.DEFERRED && manifest != null &&
+                acceptedMods().anyMatch(mod -> deferred(mod) && !modFile(mod).exists());
+    }
+
+    /**
+     * Downloads the optional mods a successful installation did not wait for, one at a time, and adds them to the mod
+     * list and the installation file. The installation stays usable throughout.
+     *
+     * @return true if all deferred mods were downloaded
+     */
+    public boolean fetchDeferredMods()
+    {
+        List<Mod> mods = acceptedMods().filter(mod -> deferred(mod) && !modFile(mod).exists()).collect(Collectors.toList());
+        if (mods.isEmpty() || config.optionalMods != OptionalMods.DEFERRED)
+            return true;
+        log.info("Downloading {} optional mods...", mods.size());
+        int downloaded = 0;
+        for (Mod mod : mods)
+        {
+            if (Thread.currentThread().isInterrupted())
+                break;
+            if (downloadMod(mod, modFile(mod)))
+                downloaded++;
+        }
+        if (downloaded > 0)
+        {
+            log.info("Adding {} optional mods to the installation...", downloaded);
+            if (createModList() == FAILURE || saveInstallation() == FAILURE)
+                return false;
+        }
+        if (downloaded < mods.size())
+        {
+            log.warn("{} optional mods could not be downloaded, they will be retried with the next update.", mods.size() - downloaded);
+            return false;
+        }
+        return true;
+    }
+
+    private Stream<Mod> acceptedMods()
+    {
+        return manifest.mods.stream().filter(this::acceptsMod);
+    }
+
+    private File modFile(Mod mod)
+    {
+        return new File(installation.modRepository.getAbsolutePath() + "/" + mod.artifactPath("jar"));
+    }
+
     private static <T> CompletableFuture<List<T>> sequence(List<CompletableFuture<T>> futures)
     {
         CompletableFuture<Void> allDoneFuture =
@@ -244,21 +1278,21 @@ public abstract class Installer
             if (Objects.equals(list.repositoryRoot, installation.modRepository.getAbsolutePath()))
             {
                 log.info("Found mod list file with correct repository root, merging mods...");
-                ForgeModList merged = strategy.mergeModLists(list, manifest.mods, this::acceptsMod);
+                ForgeModList merged = strategy.mergeModLists(list, installedMods(), this::acceptsMod);
                 return writeModList(file, merged);
             }
             else if (list.parentList == null)
             {
                 log.info("Found mod list with different repository root but without parent, adding parent...");
                 File parent = new File(config.output, "mods/mod_list_pack.json");
-                list.parentList = "absolute:" + parent.getAbsolutePath();
+                list.parentList = "absolute:" + new File(liveOutput != null ? liveOutput : config.output, "mods/mod_list_pack.json").getAbsolutePath();
                 return writeModList(parent, generateModList()) && writeModList(file, list);
             }
             else
             {
                 log.info("Found mod list file with different repository root and parent file, analyzing parent file...");
                 String parent = list.parentList;
-                File parentFile = parent.startsWith("absolute:") ? new File(parent.substring(9)) : new File(config.output, parent);
+                File parentFile = parent.startsWith("absolute:") ? stagedFile(new File(parent.substring(9))) : new File(config.output, parent);
                 return addModList(parentFile);
             }
         }
@@ -274,6 +1308,18 @@ public abstract class Installer
         }
     }
 
+    /**
+     * Maps a file inside of the live output directory to its counterpart in the staging directory.
+     */
+    private File stagedFile(File file)
+    {
+        if (liveOutput == null)
+            return file;
+        Path path = file.toPath().toAbsolutePath().normalize();
+        Path live = liveOutput.toPath();
+        return path.startsWith(live) ? config.output.toPath().resolve(live.relativize(path)).toFile() : file;
+    }
+
     private boolean writeModList(File file, ForgeModList modList)
     {
         try
@@ -285,11 +1331,13 @@ public abstract class Installer
                 log.error("Failed to create required directories for file '{}', aborting!", file.getAbsolutePath());
                 return false;
             }
-            BufferedWriter writer = new BufferedWriter(new FileWriter(file));
+            File tmpFile = new File(parent, file.getName() + ".tmp");
+            BufferedWriter writer = new BufferedWriter(new FileWriter(tmpFile));
             JsonWriter jsonWriter = new JsonWriter(writer);
             jsonWriter.setIndent("  ");
             CurseSync.GSON.toJson(modList, ForgeModList.class, jsonWriter);
             writer.close();
+            FileTrees.replace(tmpFile.toPath(), file.toPath());
         }
         catch (IOException e)
         {
@@ -302,32 +1350,65 @@ public abstract class Installer
     @Nonnull
     private ForgeModList generateModList()
     {
-        List<String> modRefs = manifest.mods.stream()
+        List<String> modRefs = installedMods().stream()
                 .filter(this::acceptsMod)
                 .map(Mod::dependencyString)
                 .collect(Collectors.toList());
         return new ForgeModList(installation.modRepository.getAbsolutePath(), modRefs, null);
     }
 
+    protected InstallStep.Result hashOverrides()
+    {
+        if (plan != null)
+        {
+            if (!Objects.equals(plan.overridesPath, manifest.overridesPath))
+            {
+                log.error("The plan's overrides directory '{}' does not match the pack's '{}', aborting!", plan.overridesPath, manifest.overridesPath);
+                return FAILURE;
+            }
+            overrideChecksums = plan.overrides.stream()
+                    .filter(o -> OverrideFilter.isEmpty(config.overrideFilter) || config.overrideFilter.matches(o.path))
+                    .collect(Collectors.toList());
+            log.info("Using {} override checksums from the plan.", overrideChecksums.size());
+            return SUCCESS;
+        }
+        log.info("Calculating override checksums...");
+        Path srcDirectory = overridesDirectory();
+        String pack = new File(config.tmpDirectory, packPath()).getAbsolutePath() + "!" + manifest.overridesPath + "#" + algorithm;
+        if (!OverrideFilter.isEmpty(config.overrideFilter))
+        {
+            log.info("Only considering overrides matching {}.", config.overrideFilter.describe());
+            pack += "?" + config.overrideFilter.describe();
+        }
+        hashedFiles.set(0);
+        if (source.kind() == PackSource.Kind.DIRECTORY)
+            overrideChecksums = getChecksums(srcDirectory);
+        else
+            overrideChecksums = packCache.checksums(pack, () -> getChecksums(srcDirectory));
+        if (overrideChecksums == null)
+        {
+            log.error("Failed to gather all checksums, aborting!");
+            return FAILURE;
+        }
+        log.info("Found {} override files and calculated their checksums!", overrideChecksums.size());
+        return SUCCESS;
+    }
+
+    private Path overridesDirectory()
+    {
+        return packRoot.resolve(manifest.overridesPath);
+    }
+
     protected InstallStep.Result copyOverrides()
     {
         log.info("Copying override files...");
-        String overridesPath = "modpacks/" + config.projectSlug + "/" + version.id + "/" + manifest.overridesPath + "/";
-        File srcDirectory = new File(config.tmpDirectory, overridesPath);
+        Path srcDirectory = overridesDirectory();
         File destDirectory = config.output;
         if (destDirectory == null)
         {
             log.error("Output directory unexpectedly was null!");
             return FAILURE;
         }
-        log.info("Calculating override checksums...");
-        List<FileOverride> checksums = getChecksums(srcDirectory, srcDirectory);
-        if (checksums == null)
-        {
-            log.error("Failed to gather all checksums, aborting!");
-            return FAILURE;
-        }
-        log.info("Found {} override files and calculated their checksums!", checksums.size());
         log.info("Checking old checksums for discrepancies...");
         if (!strategy.validateOldChecksums(destDirectory))
         {
@@ -339,19 +1420,18 @@ public abstract class Installer
             }
         }
         log.info("All checksums appear to be valid, deleting old files now...");
-        if (!strategy.deleteOldOverrides(destDirectory, checksums))
+        if (!strategy.deleteOldOverrides(destDirectory, overrideChecksums, algorithm))
         {
             log.error("Some files could not be deleted, please do so manually!");
             return FAILURE;
         }
-        log.info("Copying new overrides...");
+        log.info(config.linkedOverrides != null ? "Linking new overrides..." : "Copying new overrides...");
         try
         {
-            FileUtils.copyDirectory(srcDirectory, destDirectory, file ->
-            {
-                String relative = srcDirectory.toPath().relativize(Paths.get(file.getAbsolutePath())).toString();
-                return file.isDirectory() || !new File(destDirectory, relative).exists();
-            });
+            if (config.linkedOverrides != null)
+                copyNewFiles(materializeOverrides(srcDirectory), destDirectory.toPath(), true);
+            else
+                copyNewFiles(srcDirectory, destDirectory.toPath(), false);
         }
         catch (IOException e)
         {
@@ -359,49 +1439,192 @@ public abstract class Installer
             return FAILURE;
         }
         log.info("Done!");
-        installation.overrides = checksums;
+        installation.overrides = overrideChecksums;
+        installation.checksumAlgorithm = algorithm;
         return SUCCESS;
     }
 
-    @Nullable
-    private List<FileOverride> getChecksums(File relative, File directory)
+    /**
+     * Copies the overrides into the private directory the targets of a fan-out installation share, once per pack.
+     * Overrides are never linked straight out of the pack cache, since a game modifying one in place would change the
+     * cached pack for every later installation.
+     *
+     * @return the directory to link the overrides from
+     */
+    private Path materializeOverrides(Path srcDirectory) throws IOException
     {
-        ImmutableList.Builder<FileOverride> checksums = new ImmutableList.Builder<>();
-        File[] files = directory.listFiles();
-        if (files != null)
+        File directory = new File(config.linkedOverrides, DigestUtils.md5Hex(packPath() + "!" + manifest.overridesPath));
+        File marker = new File(directory, PackCache.MARKER_FILE);
+        Lock lock = packCache.lock(config.linkedOverrides);
+        lock.lock();
+        try
         {
-            for (File f : files)
+            if (marker.exists())
+                return directory.toPath();
+            // Copies of other pack versions are not needed anymore, e.g. after an update in watch mode
+            File[] stale = config.linkedOverrides.listFiles();
+            if (stale != null)
             {
-                if (f.isDirectory())
-                {
-                    List<FileOverride> subResult = getChecksums(relative, f);
-                    if (subResult == null)
-                        return null;
-                    checksums.addAll(subResult);
-                }
+                for (File file : stale)
+                    FileTrees.deleteTree(file.toPath());
+            }
+            log.info("Copying overrides into '{}' to link them from there...", directory.getAbsolutePath());
+            copyNewFiles(srcDirectory, directory.toPath(), false);
+            if (!marker.createNewFile())
+                throw new IOException("Failed to create marker file '" + marker.getAbsolutePath() + "'");
+            return directory.toPath();
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return true if the override is read-only by convention, so it can be shared between several installations
+     */
+    private static boolean linkable(String path)
+    {
+        return LINKED_EXTENSIONS.contains(FilenameUtils.getExtension(path).toLowerCase());
+    }
+
+    /**
+     * Copies all files from the source tree which do not exist in the destination yet.
+     * The source may reside on a different file system, e.g. inside of the pack archive.
+     *
+     * @param link whether to hard link files which are read-only by convention instead where possible
+     */
+    private void copyNewFiles(Path source, Path destination, boolean link) throws IOException
+    {
+        if (!Files.isDirectory(source))
+            return;
+        boolean filtered = !OverrideFilter.isEmpty(config.overrideFilter);
+        Files.walkFileTree(source, new SimpleFileVisitor<Path>()
+        {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException
+            {
+                String path = source.relativize(dir).toString();
+                if (filtered && config.overrideFilter.excludesDirectory(path))
+                    return FileVisitResult.SKIP_SUBTREE;
+                Files.createDirectories(destination.resolve(path));
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException
+            {
+                String path = source.relativize(file).toString();
+                if (filtered && !config.overrideFilter.matches(path))
+                    return FileVisitResult.CONTINUE;
+                Path target = destination.resolve(path);
+                if (Files.exists(target))
+                    return FileVisitResult.CONTINUE;
+                if (link && linkable(path))
+                    FileTrees.linkOrCopy(file, target);
                 else
-                {
-                    try
-                    {
-                        InputStream digestStream = new FileInputStream(f);
-                        String checksum = DigestUtils.md5Hex(digestStream);
-                        digestStream.close();
-                        checksums.add(new FileOverride(relative.toPath().relativize(f.toPath()).toString(), checksum));
-                    }
-                    catch (IOException e)
-                    {
-                        log.error(new FormattedMessageFactory().newMessage("Failed to calculate checksum of file {}!", f.getAbsolutePath()), e);
-                        return null;
-                    }
-                }
+                    governor.copy(file, target);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /**
+     * Downloads the installer of the pack's mod loader into the temporary directory, without touching the output directory.
+     */
+    protected InstallStep.Result downloadModLoader()
+    {
+        String forgeVersion = forgeVersion();
+        if (forgeVersion == null || modLoaderInstalled(forgeVersion))
+            return SUCCESS;
+        log.info("Downloading Forge Installer v{}...", forgeVersion);
+        File installerFile = forgeInstallerFile(forgeVersion);
+        try
+        {
+            if (!download(forgeInstallerUri(forgeVersion), installerFile))
+            {
+                log.error("Could not download required Forge installer, aborting!");
+                return FAILURE;
             }
         }
-        return checksums.build();
+        catch (URISyntaxException e)
+        {
+            log.error("Could not parse Forge installer URL, aborting!", e);
+            return FAILURE;
+        }
+        return SUCCESS;
+    }
+
+    /**
+     * @return true if the given Forge version is already installed in the output directory and needs no installer
+     */
+    protected boolean modLoaderInstalled(String forgeVersion)
+    {
+        return false;
+    }
+
+    protected File forgeInstallerFile(String forgeVersion)
+    {
+        return new File(config.tmpDirectory, OfflineBundle.INSTALLERS + "forge-" + forgeVersion + ".jar");
+    }
+
+    protected URI forgeInstallerUri(String forgeVersion) throws URISyntaxException
+    {
+        String fullVersion = config.gameVersion + "-" + forgeVersion;
+        return api.getURI("files.minecraftforge.net", "/maven/net/minecraftforge/forge/" + fullVersion + "/forge-" + fullVersion + "-installer.jar", null);
+    }
+
+    /**
+     * @return the Forge version of the pack's primary mod loader, null if it does not use Forge
+     */
+    @Nullable
+    private String forgeVersion()
+    {
+        return manifest.gameInfo.modLoaders.stream()
+                .filter(l -> l.primary && l.id.startsWith("forge-"))
+                .map(l -> l.id.substring("forge-".length()))
+                .findFirst().orElse(null);
+    }
+
+    /**
+     * Downloads a file to the given destination unless it exists already.
+     * Installations from an offline bundle never contact a remote host, a file missing from the bundle fails them instead.
+     */
+    protected boolean download(URI uri, File file)
+    {
+        if (config.importBundle != null && !file.exists())
+        {
+            log.error("'{}' is not contained in bundle '{}', refusing to download it from '{}'!", file.getAbsolutePath(), config.importBundle.getAbsolutePath(), uri);
+            return false;
+        }
+        return api.downloadFile(uri, file, 3, transferListener(file));
+    }
+
+    /**
+     * @return a listener reporting the download of the given file to subscribers, null if there are none
+     */
+    @Nullable
+    protected CurseAPI.TransferListener transferListener(File file)
+    {
+        if (!progress.hasSubscribers())
+            return null;
+        String path = file.getAbsolutePath();
+        return (bytes, total) -> progress.publish(new ProgressEvent.Transfer(path, bytes, total));
+    }
+
+    @Nullable
+    private List<FileOverride> getChecksums(Path directory)
+    {
+        return checksums.hashTree(directory, algorithm, config.overrideFilter, progress.hasSubscribers() ?
+                path -> progress.publish(new ProgressEvent.Hashing(path, hashedFiles.incrementAndGet())) : null);
     }
 
     protected InstallStep.Result saveInstallation()
     {
-        Installation newInstallation = new Installation(config.projectId(), config.projectNameSlug(), config.gameVersion, config.server, installation.modRepository, installation.forgeVersion, config.projectVersion, manifest.mods, installation.overrides);
+        Installation newInstallation = new Installation(config.projectId(), config.projectNameSlug(), config.gameVersion, config.server, installation.modRepository, config.projectVersion, installation.forgeVersion, installedMods(), installation.overrides);
+        newInstallation.versionName = version.name;
+        newInstallation.overrideFilter = OverrideFilter.isEmpty(config.overrideFilter) ? null : config.overrideFilter;
+        newInstallation.checksumAlgorithm = algorithm;
         File installationFile = config.installationFile();
         try
         {
@@ -412,82 +1635,90 @@ public abstract class Installer
                 log.error("Failed to create required directories for installation file, aborting!");
                 return FAILURE;
             }
-            BufferedWriter writer = new BufferedWriter(new FileWriter(installationFile));
+            File tmpFile = new File(parent, installationFile.getName() + ".tmp");
+            BufferedWriter writer = new BufferedWriter(new FileWriter(tmpFile));
             JsonWriter jsonWriter = new JsonWriter(writer);
             jsonWriter.setIndent("  ");
             CurseSync.GSON.toJson(newInstallation, Installation.class, jsonWriter);
             writer.close();
+            FileTrees.replace(tmpFile.toPath(), installationFile.toPath());
         }
         catch (IOException e)
         {
             log.error("Failed to write installation file, aborting!", e);
             return FAILURE;
         }
+        checksumIndex.save();
         return SUCCESS;
     }
 
     private boolean unzip(File zipFile, File folder)
     {
-        if (folder.exists())
+        if (packCache.verify(folder))
         {
-            log.info("Pack folder already exists, assuming equivalence. Skipping unpacking.");
+            log.info("Pack folder is already complete. Skipping unpacking.");
             return true;
         }
-        byte[] buffer = new byte[1024];
+        List<CacheMarker.Entry> entries = new PackExtractor(log, governor).extract(zipFile, folder);
+        if (entries == null)
+        {
+            log.error("Failed to unpack modpack file, aborting!");
+            return false;
+        }
+        return packCache.commit(folder, entries);
+    }
 
-        try
+    private boolean extract(ZipInputStream zis, File folder, List<CacheMarker.Entry> entries, EntryListener listener) throws IOException
+    {
+        packCache.invalidate(folder);
+        entries.clear();
+        byte[] buffer = new byte[PackExtractor.BUFFER_SIZE];
+        Set<File> directories = Sets.newHashSet();
+        ZipEntry ze;
+        while ((ze = zis.getNextEntry()) != null)
         {
-            //create output directory is not exists
-            if (!folder.exists() && !folder.mkdirs())
+            String fileName = ze.getName();
+            File newFile = PackExtractor.resolve(folder, fileName);
+            if (newFile == null)
             {
-                log.error("Failed to created required directories.");
+                log.error("Pack file contains entry '{}' pointing outside of the pack directory, aborting!", fileName);
                 return false;
             }
-
-            //get the zip file content
-            ZipInputStream zis = new ZipInputStream(new FileInputStream(zipFile));
-            //get the zipped file list entry
-            ZipEntry ze = zis.getNextEntry();
-
-            while (ze != null)
+            log.debug("Unpacking: {} '{}'", ze.isDirectory() ? "Directory" : "File", fileName);
+            File directory = ze.isDirectory() ? newFile : newFile.getParentFile();
+            if (directories.add(directory) && !directory.isDirectory() && !directory.mkdirs())
+            {
+                log.error("Failed to created directory '{}'.", directory.getAbsolutePath());
+                return false;
+            }
+            if (!ze.isDirectory())
             {
-                String fileName = ze.getName();
-                File newFile = new File(folder, fileName);
-                log.debug("Unpacking: {} '{}'", ze.isDirectory() ? "Directory" : "File", fileName);
-                if (!ze.isDirectory())
+                long size = 0;
+                CRC32 crc = new CRC32();
+                Files.deleteIfExists(newFile.toPath());
+                try (OutputStream fos = governor.write(new FileOutputStream(newFile)))
                 {
-                    File parent = newFile.getParentFile();
-                    if (!parent.exists() && !parent.mkdirs())
-                    {
-                        log.error("Failed to created required directories for file '{}'.", newFile.getAbsolutePath());
-                        return false;
-                    }
-                    FileOutputStream fos = new FileOutputStream(newFile);
-
                     int len;
                     while ((len = zis.read(buffer)) > 0)
                     {
                         fos.write(buffer, 0, len);
+                        crc.update(buffer, 0, len);
+                        size += len;
                     }
-
-                    fos.close();
                 }
-                else if (!newFile.exists() && !newFile.mkdirs())
-                {
-                    log.error("Failed to created directory '{}'.", newFile.getAbsolutePath());
+                entries.add(new CacheMarker.Entry(fileName, size, crc.getValue()));
+                if (!listener.extracted(fileName))
                     return false;
-                }
-                ze = zis.getNextEntry();
             }
-
-            zis.closeEntry();
-            zis.close();
-            return true;
-        }
-        catch (IOException e)
-        {
-            log.error("Failed to unpack modpack file, aborting!", e);
-            return false;
         }
+        return true;
+    }
+
+    private interface EntryListener
+    {
+        /**
+         * @return false to stop extracting
+         */
+        boolean extracted(String name) throws IOException;
     }
 }
@@ -0,0 +1,174 @@
+package de.mineformers.cursesync.sync.installer;
+
+import com.google.gson.JsonParseException;
+import com.google.gson.stream.JsonWriter;
+import de.mineformers.cursesync.CurseSync;
+import de.mineformers.cursesync.sync.model.PlanFile;
+import de.mineformers.cursesync.util.FileTrees;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.message.FormattedMessageFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * A single archive containing everything required for installing a pack version without network access:
+ * <ul>
+ * <li>{@code plan.json}, the {@link PlanFile} of the version</li>
+ * <li>{@code pack.zip}, the pack file itself</li>
+ * <li>{@code mods/}, all mod files of both sides in the layout of the mod repository</li>
+ * <li>{@code installers/}, the Forge installer</li>
+ * </ul>
+ * Importing a bundle places the files where the installation expects them, so none of them is downloaded again.
+ */
+public final class OfflineBundle
+{
+    public static final String PLAN = "plan.json";
+    public static final String PACK = "pack.zip";
+    public static final String MODS = "mods/";
+    public static final String INSTALLERS = "installers/";
+
+    private OfflineBundle()
+    {
+    }
+
+    /**
+     * Writes a bundle, the files are stored without compression since they are archives themselves.
+     *
+     * @param files the files to add by their entry names
+     */
+    public static boolean write(@Nonnull Logger log, @Nonnull File bundle, @Nonnull PlanFile plan, @Nonnull Map<String, File> files)
+    {
+        File parent = bundle.getAbsoluteFile().getParentFile();
+        if (!parent.exists() && !parent.mkdirs())
+        {
+            log.error("Failed to create required directories for bundle '{}'!", bundle.getAbsolutePath());
+            return false;
+        }
+        File tmpFile = new File(parent, bundle.getName() + ".tmp");
+        try
+        {
+            try (ZipOutputStream out = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile))))
+            {
+                out.setLevel(Deflater.NO_COMPRESSION);
+                out.putNextEntry(new ZipEntry(PLAN));
+                JsonWriter writer = new JsonWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+                writer.setIndent("  ");
+                CurseSync.GSON.toJson(plan, PlanFile.class, writer);
+                writer.flush();
+                out.closeEntry();
+                for (Map.Entry<String, File> file : files.entrySet())
+                {
+                    log.debug("Bundling '{}' as '{}'.", file.getValue().getAbsolutePath(), file.getKey());
+                    out.putNextEntry(new ZipEntry(file.getKey()));
+                    Files.copy(file.getValue().toPath(), out);
+                    out.closeEntry();
+                }
+            }
+            FileTrees.replace(tmpFile.toPath(), bundle.toPath());
+            log.info("Bundled version '{}' of '{}' with {} files into '{}'.", plan.version.name, plan.projectSlug, files.size(), bundle.getAbsolutePath());
+            return true;
+        }
+        catch (IOException e)
+        {
+            log.error(new FormattedMessageFactory().newMessage("Failed to write bundle '{}'!", bundle.getAbsolutePath()), e);
+            return false;
+        }
+    }
+
+    /**
+     * @return the plan of the given bundle or null if it could not be read
+     */
+    @Nullable
+    public static PlanFile readPlan(@Nonnull Logger log, @Nonnull File bundle)
+    {
+        try (ZipFile zip = new ZipFile(bundle))
+        {
+            ZipEntry entry = zip.getEntry(PLAN);
+            if (entry == null)
+            {
+                log.error("'{}' is not a CurseSync bundle, it does not contain a plan!", bundle.getAbsolutePath());
+                return null;
+            }
+            try (Reader reader = new InputStreamReader(zip.getInputStream(entry), StandardCharsets.UTF_8))
+            {
+                PlanFile plan = CurseSync.GSON.fromJson(reader, PlanFile.class);
+                if (plan == null || plan.format != PlanFile.FORMAT)
+                {
+                    log.error("Bundle '{}' contains an empty plan or one with an unsupported format!", bundle.getAbsolutePath());
+                    return null;
+                }
+                return plan;
+            }
+        }
+        catch (IOException | JsonParseException e)
+        {
+            log.error(new FormattedMessageFactory().newMessage("Failed to read bundle '{}'!", bundle.getAbsolutePath()), e);
+            return null;
+        }
+    }
+
+    /**
+     * Places the files of a bundle where an installation of its plan will look for them.
+     * Files which already exist are kept, all others are written atomically.
+     */
+    public static boolean unpack(@Nonnull Logger log, @Nonnull File bundle, @Nonnull PlanFile plan, @Nonnull File tmpDirectory, @Nonnull File modRepository)
+    {
+        log.info("Unpacking bundle '{}'...", bundle.getAbsolutePath());
+        File packFile = new File(tmpDirectory, "modpacks/" + plan.projectSlug + "/" + plan.version.id + ".zip");
+        int unpacked = 0;
+        try (ZipInputStream zis = new ZipInputStream(new BufferedInputStream(new FileInputStream(bundle))))
+        {
+            ZipEntry entry;
+            while ((entry = zis.getNextEntry()) != null)
+            {
+                String name = entry.getName();
+                if (entry.isDirectory() || name.equals(PLAN))
+                    continue;
+                File target;
+                if (name.equals(PACK))
+                    target = packFile;
+                else if (name.startsWith(MODS))
+                    target = PackExtractor.resolve(modRepository, name.substring(MODS.length()));
+                else if (name.startsWith(INSTALLERS))
+                    target = PackExtractor.resolve(new File(tmpDirectory, INSTALLERS), name.substring(INSTALLERS.length()));
+                else
+                    target = null;
+                if (target == null)
+                {
+                    log.warn("Ignoring unexpected bundle entry '{}'.", name);
+                    continue;
+                }
+                if (target.exists())
+                    continue;
+                File parent = target.getParentFile();
+                if (!parent.exists() && !parent.mkdirs())
+                {
+                    log.error("Failed to create directory '{}'!", parent.getAbsolutePath());
+                    return false;
+                }
+                File partial = new File(parent, target.getName() + ".part");
+                Files.copy(zis, partial.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                Files.move(partial.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+                unpacked++;
+            }
+        }
+        catch (IOException e)
+        {
+            log.error(new FormattedMessageFactory().newMessage("Failed to unpack bundle '{}'!", bundle.getAbsolutePath()), e);
+            return false;
+        }
+        log.info("Unpacked {} files from bundle, the others were already present.", unpacked);
+        return true;
+    }
+}
@@ -0,0 +1,33 @@
+package de.mineformers.cursesync.sync.installer;
+
+import com.google.gson.annotations.SerializedName;
+
+/**
+ * Determines when mods the manifest marks as not required are downloaded.
+ * Only mods which are actually present in the mod repository end up in the mod list and the installation file,
+ * so a later run with a different policy picks up the missing ones.
+ */
+public enum OptionalMods
+{
+    /**
+     * Optional mods are downloaded together with the required ones.
+     */
+    @SerializedName("eager")
+    EAGER,
+    /**
+     * The installation only waits for required mods, optional ones are downloaded afterwards, one at a time.
+     */
+    @SerializedName("deferred")
+    DEFERRED,
+    /**
+     * Optional mods are never downloaded, only ones already present in the mod repository are installed.
+     */
+    @SerializedName("on-demand")
+    ON_DEMAND;
+
+    @Override
+    public String toString()
+    {
+        return name().toLowerCase().replace('_', '-');
+    }
+}
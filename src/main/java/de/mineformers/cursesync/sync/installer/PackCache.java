@@ -0,0 +1,160 @@
+package de.mineformers.cursesync.sync.installer;
+
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.Striped;
+import com.google.gson.JsonParseException;
+import com.google.gson.stream.JsonWriter;
+import de.mineformers.cursesync.CurseSync;
+import de.mineformers.cursesync.sync.model.CacheMarker;
+import de.mineformers.cursesync.sync.model.FileOverride;
+import org.apache.logging.log4j.Logger;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Lock;
+import java.util.function.Supplier;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+
+/**
+ * Keeps track of which unpacked pack directories in the temporary directory are complete.
+ * A directory only counts as complete once its marker has been committed, which happens after all files were written.
+ * The marker lists every file with its size and CRC, so partial state can be detected and repaired file by file.
+ * <p>
+ * A single instance is shared by all installations in the process, so a pack is only extracted and hashed once.
+ */
+public class PackCache
+{
+    static final String MARKER_FILE = ".cursesync-complete.json";
+    private final Striped<Lock> locks = Striped.lazyWeakLock(64);
+    private final Map<String, CompletableFuture<List<FileOverride>>> checksums = new ConcurrentHashMap<>();
+    private final Logger log;
+
+    public PackCache(@Nonnull Logger log)
+    {
+        this.log = log;
+    }
+
+    /**
+     * Guards a pack directory against concurrent extraction by multiple installations in the same process.
+     */
+    @Nonnull
+    public Lock lock(@Nonnull File folder)
+    {
+        return locks.get(folder.getAbsoluteFile());
+    }
+
+    /**
+     * Calculates the override checksums of a pack only once, concurrent callers for the same pack wait for the result.
+     * Failed calculations are not remembered.
+     */
+    @Nullable
+    public List<FileOverride> checksums(@Nonnull String pack, @Nonnull Supplier<List<FileOverride>> calculation)
+    {
+        CompletableFuture<List<FileOverride>> result = new CompletableFuture<>();
+        CompletableFuture<List<FileOverride>> existing = checksums.putIfAbsent(pack, result);
+        if (existing != null)
+            return existing.join();
+        List<FileOverride> value = null;
+        try
+        {
+            value = calculation.get();
+            return value;
+        }
+        finally
+        {
+            if (value == null)
+                checksums.remove(pack);
+            result.complete(value);
+        }
+    }
+
+    /**
+     * @return true if the directory has a committed marker and all files listed in it are present with the right size
+     */
+    public boolean verify(@Nonnull File folder)
+    {
+        File markerFile = new File(folder, MARKER_FILE);
+        if (!markerFile.exists())
+        {
+            if (folder.exists())
+                log.info("Pack directory '{}' has no completion marker, it will be repaired.", folder.getAbsolutePath());
+            return false;
+        }
+        try (Reader reader = new FileReader(markerFile))
+        {
+            CacheMarker marker = CurseSync.GSON.fromJson(reader, CacheMarker.class);
+            if (marker == null || marker.files == null)
+                return false;
+            for (CacheMarker.Entry entry : marker.files)
+            {
+                File file = new File(folder, entry.path);
+                if (!file.isFile() || file.length() != entry.size)
+                {
+                    log.warn("Cached pack file '{}' is missing or incomplete, pack directory will be repaired.", file.getAbsolutePath());
+                    invalidate(folder);
+                    return false;
+                }
+            }
+            return true;
+        }
+        catch (IOException | JsonParseException e)
+        {
+            log.warn("Failed to read completion marker of pack directory, it will be repaired.", e);
+            invalidate(folder);
+            return false;
+        }
+    }
+
+    public boolean commit(@Nonnull File folder, @Nonnull List<CacheMarker.Entry> files)
+    {
+        File markerFile = new File(folder, MARKER_FILE);
+        File tmpFile = new File(folder, MARKER_FILE + ".tmp");
+        try
+        {
+            try (JsonWriter writer = new JsonWriter(new BufferedWriter(new FileWriter(tmpFile))))
+            {
+                CurseSync.GSON.toJson(new CacheMarker(files), CacheMarker.class, writer);
+            }
+            Files.move(tmpFile.toPath(), markerFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return true;
+        }
+        catch (IOException e)
+        {
+            log.error("Failed to write completion marker of pack directory!", e);
+            return false;
+        }
+    }
+
+    public void invalidate(@Nonnull File folder)
+    {
+        File markerFile = new File(folder, MARKER_FILE);
+        if (markerFile.exists() && !markerFile.delete())
+            log.warn("Failed to delete completion marker '{}'.", markerFile.getAbsolutePath());
+    }
+
+    /**
+     * @return true if the file already has the given size and CRC and does not need to be extracted again
+     */
+    static boolean matches(File file, long size, long crc)
+    {
+        if (size < 0 || crc < 0 || !file.isFile() || file.length() != size)
+            return false;
+        try (CheckedInputStream in = new CheckedInputStream(new FileInputStream(file), new CRC32()))
+        {
+            ByteStreams.exhaust(in);
+            return in.getChecksum().getValue() == crc;
+        }
+        catch (IOException e)
+        {
+            return false;
+        }
+    }
+}
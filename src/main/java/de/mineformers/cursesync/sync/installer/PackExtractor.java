@@ -0,0 +1,165 @@
+package de.mineformers.cursesync.sync.installer;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import de.mineformers.cursesync.sync.ResourceGovernor;
+import de.mineformers.cursesync.sync.model.CacheMarker;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.message.FormattedMessageFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.SortedSet;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Extracts zip archives by reading their central directory and inflating the entries concurrently.
+ * Every worker uses its own {@link ZipFile} so reads never contend on a shared file handle.
+ * Files which already exist with the size and CRC recorded in the archive are not extracted again.
+ * The number of workers and their disk throughput are limited by a {@link ResourceGovernor}.
+ */
+public class PackExtractor
+{
+    static final int BUFFER_SIZE = 64 * 1024;
+    private final Logger log;
+    private final ResourceGovernor governor;
+
+    public PackExtractor(@Nonnull Logger log, @Nonnull ResourceGovernor governor)
+    {
+        this.log = log;
+        this.governor = governor;
+    }
+
+    /**
+     * @return the extracted files for the cache marker or null if the extraction failed
+     */
+    @Nullable
+    public List<CacheMarker.Entry> extract(@Nonnull File zipFile, @Nonnull File folder)
+    {
+        List<ZipEntry> files = Lists.newArrayList();
+        SortedSet<File> directories = Sets.newTreeSet();
+        directories.add(folder);
+        try (ZipFile zip = new ZipFile(zipFile))
+        {
+            for (ZipEntry entry : Collections.list(zip.entries()))
+            {
+                File target = resolve(folder, entry.getName());
+                if (target == null)
+                {
+                    log.error("Pack file contains entry '{}' pointing outside of the pack directory, aborting!", entry.getName());
+                    return null;
+                }
+                if (entry.isDirectory())
+                {
+                    directories.add(target);
+                }
+                else
+                {
+                    directories.add(target.getParentFile());
+                    files.add(entry);
+                }
+            }
+        }
+        catch (IOException e)
+        {
+            log.error("Failed to read central directory of pack file, aborting!", e);
+            return null;
+        }
+        // Parents sort before their children, so every directory only has to be created once
+        for (File directory : directories)
+        {
+            if (!directory.isDirectory() && !directory.mkdirs())
+            {
+                log.error("Failed to created directory '{}'.", directory.getAbsolutePath());
+                return null;
+            }
+        }
+        // Start with the largest entries so a single big file does not end up as the tail of the extraction
+        files.sort(Comparator.comparingLong(ZipEntry::getSize).reversed());
+        int workerCount = governor.threads(files.size());
+        log.debug("Unpacking {} files with {} threads...", files.size(), workerCount);
+        ExecutorService workers = Executors.newFixedThreadPool(workerCount, governor.threadFactory("pack-extractor-%d"));
+        AtomicInteger next = new AtomicInteger();
+        List<Future<Boolean>> results = Lists.newArrayList();
+        for (int i = 0; i < workerCount; i++)
+        {
+            results.add(workers.submit(() -> work(zipFile, folder, files, next)));
+        }
+        workers.shutdown();
+        boolean success = true;
+        for (Future<Boolean> result : results)
+        {
+            try
+            {
+                success &= result.get();
+            }
+            catch (InterruptedException | ExecutionException e)
+            {
+                log.error("Pack extraction worker failed unexpectedly!", e);
+                success = false;
+            }
+        }
+        if (!success)
+            return null;
+        return files.stream()
+                .map(e -> new CacheMarker.Entry(e.getName(), e.getSize(), e.getCrc()))
+                .collect(Collectors.toList());
+    }
+
+    private boolean work(File zipFile, File folder, List<ZipEntry> files, AtomicInteger next)
+    {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        try (ZipFile zip = new ZipFile(zipFile))
+        {
+            int index;
+            while ((index = next.getAndIncrement()) < files.size())
+            {
+                ZipEntry entry = files.get(index);
+                File target = resolve(folder, entry.getName());
+                if (PackCache.matches(target, entry.getSize(), entry.getCrc()))
+                {
+                    log.debug("Skipping: File '{}' is already unpacked", entry.getName());
+                    continue;
+                }
+                log.debug("Unpacking: File '{}'", entry.getName());
+                // Never write into an existing file, it may be hard linked into an output directory
+                Files.deleteIfExists(target.toPath());
+                try (InputStream in = zip.getInputStream(entry);
+                     OutputStream out = governor.write(new FileOutputStream(target)))
+                {
+                    int len;
+                    while ((len = in.read(buffer)) > 0)
+                    {
+                        out.write(buffer, 0, len);
+                    }
+                }
+            }
+            return true;
+        }
+        catch (IOException e)
+        {
+            // Make the other workers stop picking up new entries
+            next.set(files.size());
+            log.error(new FormattedMessageFactory().newMessage("Failed to unpack file from '{}'!", zipFile.getAbsolutePath()), e);
+            return false;
+        }
+    }
+
+    @Nullable
+    static File resolve(File folder, String name)
+    {
+        Path root = folder.toPath().toAbsolutePath().normalize();
+        Path target = root.resolve(name).normalize();
+        return target.startsWith(root) ? target.toFile() : null;
+    }
+}
@@ -0,0 +1,158 @@
+package de.mineformers.cursesync.sync.installer;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.gson.JsonParseException;
+import de.mineformers.cursesync.CurseSync;
+import de.mineformers.cursesync.sync.model.CurseProject;
+import de.mineformers.cursesync.sync.model.PackManifest;
+import de.mineformers.cursesync.sync.model.ProjectVersion;
+import de.mineformers.cursesync.sync.model.VersionType;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.message.FormattedMessageFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Where the contents of a pack come from: a version downloaded from CurseForge, a local pack file or a local directory
+ * containing an already unpacked pack. Local packs skip everything related to the Curse API, the remaining steps of the
+ * installation are the same for all sources.
+ */
+public final class PackSource
+{
+    public static final PackSource CURSEFORGE = new PackSource(Kind.CURSEFORGE, null);
+    public static final String LOCAL_SLUG = "0-local";
+    public static final String LOCAL_VERSION = "local";
+    private final Kind kind;
+    private final File file;
+
+    private PackSource(Kind kind, @Nullable File file)
+    {
+        this.kind = kind;
+        this.file = file;
+    }
+
+    /**
+     * @param local a local pack file or directory, null for downloading from CurseForge
+     */
+    @Nonnull
+    public static PackSource of(@Nullable File local)
+    {
+        if (local == null)
+            return CURSEFORGE;
+        File absolute = local.toPath().toAbsolutePath().normalize().toFile();
+        return new PackSource(absolute.isDirectory() ? Kind.DIRECTORY : Kind.ARCHIVE, absolute);
+    }
+
+    @Nonnull
+    public Kind kind()
+    {
+        return kind;
+    }
+
+    public boolean isLocal()
+    {
+        return kind != Kind.CURSEFORGE;
+    }
+
+    @Nullable
+    public File file()
+    {
+        return file;
+    }
+
+    /**
+     * Identifies the current contents of a local pack file, so a changed file is unpacked again.
+     */
+    @Nonnull
+    public String key()
+    {
+        if (file == null)
+            return kind.name().toLowerCase();
+        return DigestUtils.md5Hex(file.getAbsolutePath() + "\n" + file.length() + "\n" + file.lastModified());
+    }
+
+    /**
+     * Fills in the project values local packs do not have: a placeholder project and version and the game version from
+     * the pack's manifest. Values which are already configured are kept.
+     *
+     * @return false if the pack's manifest could not be read
+     */
+    public boolean complete(@Nonnull Logger log, @Nonnull CurseSync.Configuration config)
+    {
+        if (!isLocal())
+            return true;
+        if (config.projectSlug == null)
+            config.projectSlug = LOCAL_SLUG;
+        if (config.projectVersion == null)
+            config.projectVersion = LOCAL_VERSION;
+        if (config.gameVersion != null)
+            return true;
+        PackManifest manifest = readManifest(log);
+        if (manifest == null)
+            return false;
+        config.gameVersion = manifest.gameInfo.version;
+        return true;
+    }
+
+    /**
+     * @return a project consisting of a single version representing the local pack
+     */
+    @Nonnull
+    public CurseProject project(@Nonnull CurseSync.Configuration config)
+    {
+        ProjectVersion version = new ProjectVersion(0, file == null ? null : file.toURI().toString(), config.projectVersion, VersionType.RELEASE, null);
+        return new CurseProject(config.projectNameSlug(), "modpacks", null, null, ImmutableList.of(), null, null,
+                ImmutableListMultimap.of(config.gameVersion, version));
+    }
+
+    @Nullable
+    private PackManifest readManifest(Logger log)
+    {
+        try
+        {
+            if (kind == Kind.DIRECTORY)
+            {
+                try (Reader reader = new FileReader(new File(file, "manifest.json")))
+                {
+                    return CurseSync.GSON.fromJson(reader, PackManifest.class);
+                }
+            }
+            try (ZipFile zip = new ZipFile(file))
+            {
+                ZipEntry entry = zip.getEntry("manifest.json");
+                if (entry == null)
+                {
+                    log.error("Pack file '{}' does not contain a manifest!", file.getAbsolutePath());
+                    return null;
+                }
+                try (Reader reader = new InputStreamReader(zip.getInputStream(entry), StandardCharsets.UTF_8))
+                {
+                    return CurseSync.GSON.fromJson(reader, PackManifest.class);
+                }
+            }
+        }
+        catch (IOException | JsonParseException e)
+        {
+            log.error(new FormattedMessageFactory().newMessage("Failed to read the manifest of local pack '{}'!", file.getAbsolutePath()), e);
+            return null;
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return file == null ? kind.name().toLowerCase() : kind.name().toLowerCase() + " '" + file.getAbsolutePath() + "'";
+    }
+
+    public enum Kind
+    {
+        CURSEFORGE, ARCHIVE, DIRECTORY
+    }
+}
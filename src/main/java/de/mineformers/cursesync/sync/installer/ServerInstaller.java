@@ -1,15 +1,17 @@
 package de.mineformers.cursesync.sync.installer;
 
 import com.google.common.base.Splitter;
-import com.google.common.collect.ImmutableList;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonPrimitive;
 import de.mineformers.cursesync.sync.model.Mod;
 import de.mineformers.cursesync.sync.model.PackManifest;
+import de.mineformers.cursesync.util.FileTrees;
 import org.apache.commons.exec.*;
 
 import java.io.File;
 import java.io.IOException;
 import java.net.URISyntaxException;
-import java.util.List;
+import java.nio.file.Files;
 import java.util.Objects;
 import java.util.Optional;
 
@@ -19,9 +21,20 @@ import static de.mineformers.cursesync.sync.installer.InstallStep.Result.SUCCESS
 public class ServerInstaller extends Installer
 {
     @Override
-    protected List<InstallStep> constructSteps()
+    protected void constructSteps(InstallGraph graph)
     {
-        return ImmutableList.of(this::installModLoaders);
+        graph.add("installModLoaders", this::installModLoaders).requires(MOD_LOADER_INSTALLER, OUTPUT_DIRECTORY).produces(MOD_LOADER)
+                .checkpoint(() -> installation.forgeVersion == null ? JsonNull.INSTANCE : new JsonPrimitive(installation.forgeVersion), outputs ->
+                {
+                    installation.forgeVersion = outputs.isJsonNull() ? null : outputs.getAsString();
+                    return true;
+                });
+    }
+
+    @Override
+    protected boolean modLoaderInstalled(String forgeVersion)
+    {
+        return new File(config.output, "forge-" + config.gameVersion + "-" + forgeVersion + "-universal.jar").exists();
     }
 
     private InstallStep.Result installModLoaders()
@@ -82,19 +95,24 @@ public class ServerInstaller extends Installer
             return SUCCESS;
         }
         log.info("Downloading Forge Server Installer v{}...", version);
-        File installerFile = new File(config.tmpDirectory, "installers/forge-" + version + ".jar");
+        File installerFile = forgeInstallerFile(version);
+        File installDirectory = null;
         try
         {
-            if (!api.downloadFile(api.getURI("files.minecraftforge.net", "/maven/net/minecraftforge/forge/" + fullVersion + "/" + fullName + "-installer.jar", null), installerFile, 3))
+            if (!download(forgeInstallerUri(version), installerFile))
             {
                 log.error("Could not download required Forge installer, aborting!");
                 return FAILURE;
             }
             log.info("Invoking Forge server installation...");
+            // The installer may overwrite files in place, which must not reach files hard linked into other directories.
+            // Every run gets its own directory, batch and fan-out targets may install the same version in parallel.
+            Files.createDirectories(config.tmpDirectory.toPath());
+            installDirectory = Files.createTempDirectory(config.tmpDirectory.toPath(), "forge-server-").toFile();
             String line = "java -jar " + installerFile.getAbsolutePath() + " --installServer";
             CommandLine cmdLine = CommandLine.parse(line);
             DefaultExecutor executor = new DefaultExecutor();
-            executor.setWorkingDirectory(config.output);
+            executor.setWorkingDirectory(installDirectory);
             executor.setStreamHandler(new PumpStreamHandler(new LogOutputStream()
             {
                 @Override
@@ -115,6 +133,8 @@ public class ServerInstaller extends Installer
             {
                 return FAILURE;
             }
+            log.info("Moving Forge server files into the output directory...");
+            FileTrees.moveTree(installDirectory.toPath(), config.output.toPath());
         }
         catch (URISyntaxException e)
         {
@@ -138,10 +158,27 @@ public class ServerInstaller extends Installer
             log.error("Could not successfully execute external installer process, aborting!", e);
             return FAILURE;
         }
+        finally
+        {
+            if (installDirectory != null)
+                deleteInstallDirectory(installDirectory);
+        }
         installation.forgeVersion = version;
         return SUCCESS;
     }
 
+    private void deleteInstallDirectory(File directory)
+    {
+        try
+        {
+            FileTrees.deleteTree(directory.toPath());
+        }
+        catch (IOException e)
+        {
+            log.warn(log.getMessageFactory().newMessage("Failed to delete temporary Forge installation directory '{}'.", directory.getAbsolutePath()), e);
+        }
+    }
+
     @Override
     protected boolean acceptsMod(Mod mod)
     {
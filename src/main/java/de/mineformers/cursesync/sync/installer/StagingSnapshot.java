@@ -0,0 +1,208 @@
+package de.mineformers.cursesync.sync.installer;
+
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.gson.JsonParseException;
+import com.google.gson.stream.JsonWriter;
+import de.mineformers.cursesync.CurseSync;
+import de.mineformers.cursesync.util.FileTrees;
+import org.apache.logging.log4j.Logger;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.*;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Remembers the files of the live output directory and of the staging directory at the time the staging directory was
+ * linked from it. The live directory stays in use while a staged installation runs, so files the game creates or
+ * replaces in the meantime have to be carried over before the staging directory is swapped in.
+ * <p>
+ * A file is carried over if it changed in the live directory and the installation did not change it in the staging
+ * directory. Files the installation did change are managed by it and keep the installed version.
+ */
+final class StagingSnapshot
+{
+    private final Map<String, Pair> files;
+
+    private StagingSnapshot(Map<String, Pair> files)
+    {
+        this.files = files;
+    }
+
+    /**
+     * Records the state of both directories, must be called right after the staging directory was linked.
+     */
+    @Nonnull
+    static StagingSnapshot take(@Nonnull Path live, @Nonnull Path staging) throws IOException
+    {
+        Map<String, Pair> files = Maps.newHashMap();
+        if (!Files.isDirectory(live))
+            return new StagingSnapshot(files);
+        Files.walkFileTree(live, new SimpleFileVisitor<Path>()
+        {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException
+            {
+                if (!attrs.isRegularFile())
+                    return FileVisitResult.CONTINUE;
+                String path = live.relativize(file).toString();
+                files.put(path, new Pair(State.of(attrs), State.of(staging.resolve(path))));
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return new StagingSnapshot(files);
+    }
+
+    /**
+     * Brings the staging directory up to date with the changes made to the live directory since the snapshot was taken.
+     * New and replaced files are linked into the staging directory, deleted files are deleted from it, unless the
+     * installation changed the same file.
+     *
+     * @return the number of files carried over
+     */
+    int resync(@Nonnull Logger log, @Nonnull Path live, @Nonnull Path staging) throws IOException
+    {
+        int[] synced = {0};
+        Set<String> present = Sets.newHashSet();
+        if (Files.isDirectory(live))
+        {
+            Files.walkFileTree(live, new SimpleFileVisitor<Path>()
+            {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException
+                {
+                    if (!attrs.isRegularFile())
+                        return FileVisitResult.CONTINUE;
+                    String path = live.relativize(file).toString();
+                    present.add(path);
+                    Pair then = files.get(path);
+                    State now = State.of(attrs);
+                    Path target = staging.resolve(path);
+                    State staged = State.of(target);
+                    // Files modified in place are shared through the hard link already
+                    if (Objects.equals(now, staged) || then != null && Objects.equals(now, then.live))
+                        return FileVisitResult.CONTINUE;
+                    if (!Objects.equals(staged, then == null ? null : then.staging))
+                    {
+                        log.warn("File '{}' changed in the output directory during the installation, which replaced it as well, keeping the installed file.", path);
+                        return FileVisitResult.CONTINUE;
+                    }
+                    log.debug("Carrying over '{}' from the output directory.", path);
+                    Files.createDirectories(target.getParent());
+                    Files.deleteIfExists(target);
+                    FileTrees.linkOrCopy(file, target);
+                    synced[0]++;
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        }
+        for (Map.Entry<String, Pair> entry : files.entrySet())
+        {
+            if (present.contains(entry.getKey()))
+                continue;
+            Path target = staging.resolve(entry.getKey());
+            if (entry.getValue().staging != null && Objects.equals(State.of(target), entry.getValue().staging))
+            {
+                log.debug("Deleting '{}' which was deleted from the output directory.", entry.getKey());
+                Files.delete(target);
+                synced[0]++;
+            }
+        }
+        return synced[0];
+    }
+
+    /**
+     * @return the snapshot stored in the given file or null if there is none
+     */
+    @Nullable
+    static StagingSnapshot load(@Nonnull Logger log, @Nonnull File file)
+    {
+        if (!file.exists())
+            return null;
+        try (Reader reader = new BufferedReader(new FileReader(file)))
+        {
+            StagingSnapshot snapshot = CurseSync.GSON.fromJson(reader, StagingSnapshot.class);
+            return snapshot == null || snapshot.files == null ? null : snapshot;
+        }
+        catch (IOException | JsonParseException e)
+        {
+            log.warn("Failed to read the state of the staging directory.", e);
+            return null;
+        }
+    }
+
+    void save(@Nonnull File file) throws IOException
+    {
+        File parent = file.getParentFile();
+        if (!parent.isDirectory() && !parent.mkdirs())
+            throw new IOException("Failed to create directory '" + parent.getAbsolutePath() + "'");
+        try (JsonWriter writer = new JsonWriter(new BufferedWriter(new FileWriter(file))))
+        {
+            CurseSync.GSON.toJson(this, StagingSnapshot.class, writer);
+        }
+    }
+
+    private static final class Pair
+    {
+        final State live;
+        @Nullable
+        final State staging;
+
+        Pair(State live, @Nullable State staging)
+        {
+            this.live = live;
+            this.staging = staging;
+        }
+    }
+
+    private static final class State
+    {
+        final long size;
+        final long modified;
+        @Nullable
+        final String inode;
+
+        State(long size, long modified, @Nullable String inode)
+        {
+            this.size = size;
+            this.modified = modified;
+            this.inode = inode;
+        }
+
+        static State of(BasicFileAttributes attributes)
+        {
+            Object key = attributes.fileKey();
+            return new State(attributes.size(), attributes.lastModifiedTime().toMillis(), key == null ? null : key.toString());
+        }
+
+        @Nullable
+        static State of(Path file) throws IOException
+        {
+            if (!Files.isRegularFile(file, LinkOption.NOFOLLOW_LINKS))
+                return null;
+            return of(Files.readAttributes(file, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS));
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            if (this == o)
+                return true;
+            if (o == null || getClass() != o.getClass())
+                return false;
+            State state = (State) o;
+            return size == state.size && modified == state.modified && Objects.equals(inode, state.inode);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return Objects.hash(size, modified, inode);
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package de.mineformers.cursesync.sync.installer;
+
+import com.google.common.collect.ImmutableList;
+import de.mineformers.cursesync.sync.model.FileOverride;
+import de.mineformers.cursesync.sync.model.Mod;
+import org.apache.commons.io.FileUtils;
+import org.apache.logging.log4j.Logger;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.List;
+
+/**
+ * The changes an installation run would apply to the output directory, along with the expected download volume.
+ */
+public class UpdatePlan
+{
+    public final String fromVersion;
+    public final String toVersion;
+    public final List<Mod> addedMods;
+    public final List<Mod> removedMods;
+    public final List<String> addedOverrides;
+    public final List<String> changedOverrides;
+    public final List<String> removedOverrides;
+    public final int unchangedOverrides;
+    @Nullable
+    public final String oldForgeVersion;
+    @Nullable
+    public final String newForgeVersion;
+    public final boolean reinstallForge;
+    public final boolean wipeOutput;
+    public final List<Mod> downloads;
+    public final long downloadBytes;
+    public final boolean downloadSizeComplete;
+    public final double bytesPerSecond;
+
+    public UpdatePlan(String fromVersion, String toVersion, List<Mod> addedMods, List<Mod> removedMods,
+                      List<String> addedOverrides, List<String> changedOverrides, List<String> removedOverrides, int unchangedOverrides,
+                      @Nullable String oldForgeVersion, @Nullable String newForgeVersion, boolean reinstallForge, boolean wipeOutput,
+                      List<Mod> downloads, long downloadBytes, boolean downloadSizeComplete, double bytesPerSecond)
+    {
+        this.fromVersion = fromVersion;
+        this.toVersion = toVersion;
+        this.addedMods = ImmutableList.copyOf(addedMods);
+        this.removedMods = ImmutableList.copyOf(removedMods);
+        this.addedOverrides = ImmutableList.copyOf(addedOverrides);
+        this.changedOverrides = ImmutableList.copyOf(changedOverrides);
+        this.removedOverrides = ImmutableList.copyOf(removedOverrides);
+        this.unchangedOverrides = unchangedOverrides;
+        this.oldForgeVersion = oldForgeVersion;
+        this.newForgeVersion = newForgeVersion;
+        this.reinstallForge = reinstallForge;
+        this.wipeOutput = wipeOutput;
+        this.downloads = ImmutableList.copyOf(downloads);
+        this.downloadBytes = downloadBytes;
+        this.downloadSizeComplete = downloadSizeComplete;
+        this.bytesPerSecond = bytesPerSecond;
+    }
+
+    /**
+     * @return the estimated download time in seconds or -1 if there is no historical throughput to base it on
+     */
+    public long estimatedSeconds()
+    {
+        if (downloadBytes == 0)
+            return 0;
+        return bytesPerSecond <= 0 ? -1 : (long) Math.ceil(downloadBytes / bytesPerSecond);
+    }
+
+    public void dump(@Nonnull Logger log)
+    {
+        log.info("============================================================================");
+        log.info("Installation plan: {} -> {}", fromVersion, toVersion);
+        if (wipeOutput)
+            log.info("The output directory will be cleared completely!");
+        log.info("Mods to add: {}", addedMods.size());
+        addedMods.forEach(mod -> log.info(" + {}", mod.dependencyString()));
+        log.info("Mods to remove: {}", removedMods.size());
+        removedMods.forEach(mod -> log.info(" - {}", mod.dependencyString()));
+        log.info("Overrides: {} added, {} changed, {} removed, {} unchanged", addedOverrides.size(), changedOverrides.size(), removedOverrides.size(), unchangedOverrides);
+        addedOverrides.forEach(path -> log.info(" + {}", path));
+        changedOverrides.forEach(path -> log.info(" * {}", path));
+        removedOverrides.forEach(path -> log.info(" - {}", path));
+        if (reinstallForge)
+            log.info("Forge: will be installed ({} -> {})", oldForgeVersion == null ? "none" : oldForgeVersion, newForgeVersion);
+        else
+            log.info("Forge: unchanged ({})", newForgeVersion == null ? "none" : newForgeVersion);
+        log.info("Mod files to download: {} ({}{})", downloads.size(), downloadSizeComplete ? "" : "at least ", FileUtils.byteCountToDisplaySize(downloadBytes));
+        long seconds = estimatedSeconds();
+        if (seconds < 0)
+            log.info("Estimated download time: unknown, no downloads have been measured yet");
+        else
+            log.info("Estimated download time: {}s at {}/s", seconds, FileUtils.byteCountToDisplaySize((long) bytesPerSecond));
+        log.info("============================================================================");
+    }
+}
@@ -1,20 +1,23 @@
 package de.mineformers.cursesync.sync.mode;
 
+import com.google.common.collect.Lists;
+import com.google.common.hash.HashCode;
 import com.google.inject.Inject;
 import de.mineformers.cursesync.CurseSync;
+import de.mineformers.cursesync.sync.ChecksumService;
+import de.mineformers.cursesync.sync.model.ChecksumAlgorithm;
 import de.mineformers.cursesync.sync.model.FileOverride;
 import de.mineformers.cursesync.sync.model.ForgeModList;
 import de.mineformers.cursesync.sync.model.Installation;
 import de.mineformers.cursesync.sync.model.Mod;
-import org.apache.commons.codec.digest.DigestUtils;
+import de.mineformers.cursesync.sync.model.OverrideFilter;
 import org.apache.commons.io.FileUtils;
 import org.apache.logging.log4j.Logger;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
@@ -27,6 +30,8 @@ public abstract class FileStrategy
     protected CurseSync.Configuration config;
     @Inject
     protected Installation installation;
+    @Inject
+    protected ChecksumService checksums;
 
     public boolean canInstall()
     {
@@ -70,46 +75,69 @@ public abstract class FileStrategy
         return true;
     }
 
-    public boolean deleteOldOverrides(File directory, List<FileOverride> overrides)
+    /**
+     * Deletes the overrides of the existing installation, except for the ones matching the new overrides.
+     *
+     * @param overrides the new overrides
+     * @param algorithm the algorithm the checksums of the new overrides are calculated with
+     */
+    public boolean deleteOldOverrides(File directory, List<FileOverride> overrides, ChecksumAlgorithm algorithm)
     {
         boolean success = true;
         if (installation.overrides != null)
         {
+            List<String> paths = Lists.newArrayList();
             for (FileOverride override : installation.overrides)
             {
-                File overrideFile = new File(directory, override.path);
-                if (!overrideFile.exists())
+                if (!managed(override))
+                {
+                    log.info("Override file '{}' is excluded from the installation now, leaving it alone.", override.path);
+                    continue;
+                }
+                paths.add(override.path);
+            }
+            Map<String, HashCode> newChecksums = overrides.stream().collect(Collectors.toMap(o -> o.path, o -> o.checksum, (a, b) -> b));
+            ChecksumAlgorithm oldAlgorithm = ChecksumAlgorithm.orLegacy(installation.checksumAlgorithm);
+            if (oldAlgorithm != algorithm)
+                log.info("The installation was tracked with {} checksums, hashing existing overrides with {} to compare them.", oldAlgorithm, algorithm);
+            for (ChecksumService.Result result : checksums.hashFiles(directory.toPath(), algorithm, paths))
+            {
+                File overrideFile = new File(directory, result.path);
+                if (!result.exists())
+                {
+                    log.info("Override file '{}' doesn't exist anymore, ignoring it.", result.path);
+                    continue;
+                }
+                if (result.error != null)
+                {
+                    log.error(log.getMessageFactory().newMessage("Could not calculate checksum for file '{}'!", overrideFile.getAbsolutePath()), result.error);
+                    success = false;
+                    continue;
+                }
+                if (Objects.equals(result.checksum, newChecksums.get(result.path)))
                 {
-                    log.info("Override file '{}' doesn't exist anymore, ignoring it.", override.path);
+                    log.info("Override file '{}' exists and matches the new checksum, keeping it.", result.path);
                     continue;
                 }
                 try
                 {
-                    InputStream digestStream = new FileInputStream(overrideFile);
-                    String checksum = DigestUtils.md5Hex(digestStream);
-                    digestStream.close();
-                    if (overrides.stream().anyMatch(o -> Objects.equals(o.path, override.path) && Objects.equals(checksum, override.checksum)))
-                    {
-                        log.info("Override file '{}' exists and matches the new checksum, keeping it.", override.path);
-                        continue;
-                    }
-                    try
-                    {
-                        FileUtils.forceDelete(overrideFile);
-                    }
-                    catch (IOException e)
-                    {
-                        log.error(log.getMessageFactory().newMessage("Could not delete file '{}'!", overrideFile.getAbsolutePath()), e);
-                        success = false;
-                    }
+                    FileUtils.forceDelete(overrideFile);
                 }
                 catch (IOException e)
                 {
-                    log.error(log.getMessageFactory().newMessage("Could not calculate checksum for file '{}'!", overrideFile.getAbsolutePath()), e);
+                    log.error(log.getMessageFactory().newMessage("Could not delete file '{}'!", overrideFile.getAbsolutePath()), e);
                     success = false;
                 }
             }
         }
         return success;
     }
+
+    /**
+     * @return false if the configured override filter excludes the given override of the existing installation
+     */
+    protected boolean managed(FileOverride override)
+    {
+        return OverrideFilter.isEmpty(config.overrideFilter) || config.overrideFilter.matches(override.path);
+    }
 }
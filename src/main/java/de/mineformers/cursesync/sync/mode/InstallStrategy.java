@@ -5,7 +5,7 @@ public class InstallStrategy extends FileStrategy
     @Override
     public boolean canInstall()
     {
-        if (installation.lastFile != null)
+        if (installation.lastFile != null || installation.mods != null)
         {
             log.error("Could not install modpack because there already was an installation in the desired output directory!");
             return false;
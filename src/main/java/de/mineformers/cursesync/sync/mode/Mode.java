@@ -2,22 +2,32 @@ package de.mineformers.cursesync.sync.mode;
 
 import com.google.gson.annotations.SerializedName;
 
+import java.util.function.Supplier;
+
 public enum Mode
 {
     @SerializedName("install")
-    INSTALL(new InstallStrategy()),
+    INSTALL(InstallStrategy::new),
     @SerializedName("overwrite")
-    INSTALL_OVERWRITE(new OverwriteStrategy()),
+    INSTALL_OVERWRITE(OverwriteStrategy::new),
     @SerializedName("update")
-    UPDATE(new UpdateStrategy());
+    UPDATE(UpdateStrategy::new);
 
-    public final FileStrategy strategy;
+    private final Supplier<FileStrategy> strategy;
 
-    Mode(FileStrategy strategy)
+    Mode(Supplier<FileStrategy> strategy)
     {
         this.strategy = strategy;
     }
 
+    /**
+     * Strategies hold a reference to the configuration and installation they operate on, so every installation needs its own.
+     */
+    public FileStrategy createStrategy()
+    {
+        return strategy.get();
+    }
+
     @Override
     public String toString()
     {
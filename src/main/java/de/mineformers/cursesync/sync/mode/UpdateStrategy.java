@@ -1,16 +1,14 @@
 package de.mineformers.cursesync.sync.mode;
 
+import de.mineformers.cursesync.sync.ChecksumService;
+import de.mineformers.cursesync.sync.model.ChecksumAlgorithm;
 import de.mineformers.cursesync.sync.model.FileOverride;
 import de.mineformers.cursesync.sync.model.ForgeModList;
 import de.mineformers.cursesync.sync.model.Mod;
-import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.logging.log4j.Level;
 import org.apache.logging.log4j.message.FormattedMessageFactory;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.IOException;
-import java.io.InputStream;
 import java.util.List;
 import java.util.Objects;
 import java.util.function.Predicate;
@@ -47,32 +45,33 @@ public class UpdateStrategy extends FileStrategy
             return true;
         }
         boolean success = true;
-        for (FileOverride override : installation.overrides)
+        Level level = config.failDiscrepancies ? Level.ERROR : Level.WARN;
+        List<FileOverride> managed = installation.overrides.stream().filter(this::managed).collect(Collectors.toList());
+        List<ChecksumService.Result> results = checksums.hashFiles(directory.toPath(), ChecksumAlgorithm.orLegacy(installation.checksumAlgorithm),
+                managed.stream().map(o -> o.path).collect(Collectors.toList()));
+        for (int i = 0; i < managed.size(); i++)
         {
+            FileOverride override = managed.get(i);
+            ChecksumService.Result result = results.get(i);
             File overrideFile = new File(directory, override.path);
-            try
+            if (!result.exists())
             {
-                if (!overrideFile.exists())
-                {
-                    log.log(config.failDiscrepancies ? Level.ERROR : Level.WARN, "Expected file '{}' did not exit, can't calculate checksum!", overrideFile.getAbsolutePath());
-                    success = !config.failDiscrepancies;
-                    continue;
-                }
-                InputStream digestStream = new FileInputStream(overrideFile);
-                String checksum = DigestUtils.md5Hex(digestStream);
-                digestStream.close();
-                if (!Objects.equals(checksum, override.checksum))
-                {
-                    log.log(config.failDiscrepancies ? Level.ERROR : Level.WARN, "Found discrepancies between existing file '{}' and it's last known checksum!", overrideFile.getAbsolutePath());
-                    log.log(config.failDiscrepancies ? Level.ERROR : Level.WARN, " - Stored Checksum: {}", override.checksum);
-                    log.log(config.failDiscrepancies ? Level.ERROR : Level.WARN, " - Calculated Checksum: {}", checksum);
-                    success = !config.failDiscrepancies;
-                }
+                log.log(level, "Expected file '{}' did not exit, can't calculate checksum!", overrideFile.getAbsolutePath());
+                success &= !config.failDiscrepancies;
+                continue;
             }
-            catch (IOException e)
+            if (result.error != null)
             {
-                log.log(config.failDiscrepancies ? Level.ERROR : Level.WARN, new FormattedMessageFactory().newMessage("Failed to calculate checksum of file {}!", overrideFile.getAbsolutePath()), e);
-                success = !config.failDiscrepancies;
+                log.log(level, new FormattedMessageFactory().newMessage("Failed to calculate checksum of file {}!", overrideFile.getAbsolutePath()), result.error);
+                success &= !config.failDiscrepancies;
+                continue;
+            }
+            if (!Objects.equals(result.checksum, override.checksum))
+            {
+                log.log(level, "Found discrepancies between existing file '{}' and it's last known checksum!", overrideFile.getAbsolutePath());
+                log.log(level, " - Stored Checksum: {}", override.checksum);
+                log.log(level, " - Calculated Checksum: {}", result.checksum);
+                success &= !config.failDiscrepancies;
             }
         }
         return success;
@@ -0,0 +1,47 @@
+package de.mineformers.cursesync.sync.model;
+
+import com.google.common.base.MoreObjects;
+
+import java.util.List;
+
+public class CacheMarker
+{
+    public final List<Entry> files;
+
+    public CacheMarker(List<Entry> files)
+    {
+        this.files = files;
+    }
+
+    @Override
+    public String toString()
+    {
+        return MoreObjects.toStringHelper(this)
+                .add("files", files)
+                .toString();
+    }
+
+    public static class Entry
+    {
+        public final String path;
+        public final long size;
+        public final long crc;
+
+        public Entry(String path, long size, long crc)
+        {
+            this.path = path;
+            this.size = size;
+            this.crc = crc;
+        }
+
+        @Override
+        public String toString()
+        {
+            return MoreObjects.toStringHelper(this)
+                    .add("path", path)
+                    .add("size", size)
+                    .add("crc", crc)
+                    .toString();
+        }
+    }
+}
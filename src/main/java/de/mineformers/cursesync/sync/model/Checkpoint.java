@@ -0,0 +1,21 @@
+package de.mineformers.cursesync.sync.model;
+
+import com.google.gson.JsonElement;
+
+import javax.annotation.Nullable;
+import java.util.Map;
+
+public class Checkpoint
+{
+    public final String inputs;
+    @Nullable
+    public String manifest;
+    public final Map<String, JsonElement> steps;
+
+    public Checkpoint(String inputs, @Nullable String manifest, Map<String, JsonElement> steps)
+    {
+        this.inputs = inputs;
+        this.manifest = manifest;
+        this.steps = steps;
+    }
+}
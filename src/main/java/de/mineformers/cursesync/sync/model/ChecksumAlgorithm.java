@@ -0,0 +1,90 @@
+package de.mineformers.cursesync.sync.model;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import com.google.gson.annotations.SerializedName;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * The digests override files can be tracked with. Checksums are only ever compared to ones of the same algorithm,
+ * which is why installations and plans record the algorithm their checksums were calculated with.
+ */
+public enum ChecksumAlgorithm
+{
+    /**
+     * The algorithm of installations which do not record one, only kept for reading those.
+     */
+    @SerializedName("md5")
+    MD5(1, Hashing.md5()),
+    /**
+     * A cryptographic digest for detecting deliberate modifications.
+     */
+    @SerializedName("sha-256")
+    SHA_256(2, Hashing.sha256()),
+    /**
+     * A fast non-cryptographic 128 bit hash, the default.
+     */
+    @SerializedName("murmur3")
+    MURMUR3(3, Hashing.murmur3_128()),
+    /**
+     * A fast non-cryptographic 32 bit checksum, only suitable for detecting accidental modifications.
+     */
+    @SerializedName("crc32c")
+    CRC32C(4, Hashing.crc32c());
+
+    public static final ChecksumAlgorithm DEFAULT = MURMUR3;
+    /**
+     * A stable identifier for binary storage.
+     */
+    public final int id;
+    private final HashFunction function;
+
+    ChecksumAlgorithm(int id, HashFunction function)
+    {
+        this.id = id;
+        this.function = function;
+    }
+
+    @Nonnull
+    public HashFunction function()
+    {
+        return function;
+    }
+
+    /**
+     * @return the configured algorithm or the default one
+     */
+    @Nonnull
+    public static ChecksumAlgorithm orDefault(@Nullable ChecksumAlgorithm algorithm)
+    {
+        return algorithm == null ? DEFAULT : algorithm;
+    }
+
+    /**
+     * @return the recorded algorithm or MD5 for data written before algorithms were recorded
+     */
+    @Nonnull
+    public static ChecksumAlgorithm orLegacy(@Nullable ChecksumAlgorithm algorithm)
+    {
+        return algorithm == null ? MD5 : algorithm;
+    }
+
+    @Nullable
+    public static ChecksumAlgorithm byId(int id)
+    {
+        for (ChecksumAlgorithm algorithm : values())
+        {
+            if (algorithm.id == id)
+                return algorithm;
+        }
+        return null;
+    }
+
+    @Override
+    public String toString()
+    {
+        return name().toLowerCase().replace('_', '-');
+    }
+}
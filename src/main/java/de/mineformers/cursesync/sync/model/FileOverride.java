@@ -1,13 +1,17 @@
 package de.mineformers.cursesync.sync.model;
 
 import com.google.common.base.MoreObjects;
+import com.google.common.hash.HashCode;
 
 public class FileOverride
 {
     public final String path;
-    public final String checksum;
+    /**
+     * The checksum of the file, calculated with the algorithm of the installation or plan listing it.
+     */
+    public final HashCode checksum;
 
-    public FileOverride(String path, String checksum)
+    public FileOverride(String path, HashCode checksum)
     {
         this.path = path;
         this.checksum = checksum;
@@ -17,14 +17,33 @@ public class Installation
     public final boolean server;
     @Nonnull
     public File modRepository;
+    /**
+     * The version filter the pack was installed with, null if the newest version was installed.
+     */
     @Nullable
     public String lastFile;
+    /**
+     * The name of the installed pack version, null for installations saved before it was recorded.
+     */
+    @Nullable
+    public String versionName;
     @Nullable
     public String forgeVersion;
     @Nullable
     public List<Mod> mods;
     @Nullable
     public List<FileOverride> overrides;
+    /**
+     * The filter the overrides were selected with, null if all of them are installed.
+     */
+    @Nullable
+    public OverrideFilter overrideFilter;
+    /**
+     * The algorithm of the override checksums, null for installations which were tracked with MD5 before algorithms
+     * were recorded.
+     */
+    @Nullable
+    public ChecksumAlgorithm checksumAlgorithm;
 
     public Installation(int projectId, @Nonnull String projectNameSlug, @Nonnull String gameVersion, boolean server, @Nonnull File modRepository, @Nullable String lastFile, @Nullable String forgeVersion, @Nullable List<Mod> mods, @Nullable List<FileOverride> overrides)
     {
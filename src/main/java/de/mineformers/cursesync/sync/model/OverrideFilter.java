@@ -0,0 +1,110 @@
+package de.mineformers.cursesync.sync.model;
+
+import com.google.common.base.Joiner;
+import com.google.common.base.MoreObjects;
+import com.google.common.collect.ImmutableList;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.nio.file.FileSystems;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Glob patterns selecting the override files an installation manages, matched against paths relative to the
+ * overrides directory with '/' as separator. A file is managed if it matches any include pattern (or there are none)
+ * and no exclude pattern. Files which are not managed are neither hashed, copied nor deleted.
+ */
+public class OverrideFilter
+{
+    @Nullable
+    public final List<String> include;
+    @Nullable
+    public final List<String> exclude;
+    private transient List<PathMatcher> includeMatchers;
+    private transient List<PathMatcher> excludeMatchers;
+    private transient List<PathMatcher> excludedDirectories;
+
+    public OverrideFilter(@Nullable List<String> include, @Nullable List<String> exclude)
+    {
+        this.include = include;
+        this.exclude = exclude;
+    }
+
+    public static boolean isEmpty(@Nullable OverrideFilter filter)
+    {
+        return filter == null || (filter.include == null || filter.include.isEmpty()) && (filter.exclude == null || filter.exclude.isEmpty());
+    }
+
+    /**
+     * @param path a file path relative to the overrides directory
+     */
+    public boolean matches(@Nonnull String path)
+    {
+        init();
+        String normalized = normalize(path);
+        return (includeMatchers.isEmpty() || includeMatchers.stream().anyMatch(m -> m.matches(Paths.get(normalized)))) &&
+                excludeMatchers.stream().noneMatch(m -> m.matches(Paths.get(normalized)));
+    }
+
+    /**
+     * Determines whether all files inside of a directory are excluded, so it does not need to be visited at all.
+     * This is the case if an exclude pattern ends with "/**" and the part before it matches the directory.
+     *
+     * @param path a directory path relative to the overrides directory
+     */
+    public boolean excludesDirectory(@Nonnull String path)
+    {
+        init();
+        String normalized = normalize(path);
+        return !normalized.isEmpty() && excludedDirectories.stream().anyMatch(m -> m.matches(Paths.get(normalized)));
+    }
+
+    /**
+     * @return a stable description of the patterns, e.g. for cache keys
+     */
+    @Nonnull
+    public String describe()
+    {
+        return "include=" + Joiner.on(',').join(include == null ? ImmutableList.of() : include) +
+                ";exclude=" + Joiner.on(',').join(exclude == null ? ImmutableList.of() : exclude);
+    }
+
+    private synchronized void init()
+    {
+        if (excludedDirectories != null)
+            return;
+        includeMatchers = matchers(include);
+        excludeMatchers = matchers(exclude);
+        excludedDirectories = matchers(exclude == null ? null : exclude.stream()
+                .filter(p -> p.endsWith("/**") && p.length() > 3)
+                .map(p -> p.substring(0, p.length() - 3))
+                .collect(Collectors.toList()));
+    }
+
+    private static List<PathMatcher> matchers(@Nullable List<String> patterns)
+    {
+        if (patterns == null)
+            return ImmutableList.of();
+        return patterns.stream()
+                .map(p -> FileSystems.getDefault().getPathMatcher("glob:" + p))
+                .collect(Collectors.toList());
+    }
+
+    private static String normalize(String path)
+    {
+        String normalized = path.replace('\\', '/');
+        return normalized.startsWith("/") ? normalized.substring(1) : normalized;
+    }
+
+    @Override
+    public String toString()
+    {
+        return MoreObjects.toStringHelper(this)
+                .add("include", include)
+                .add("exclude", exclude)
+                .toString();
+    }
+}
@@ -0,0 +1,143 @@
+package de.mineformers.cursesync.sync.model;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.hash.HashCode;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.List;
+
+/**
+ * A pack version resolved once and exported for installing it elsewhere without talking to the Curse API.
+ * It contains everything an installation would otherwise look up or calculate: the selected version, the download
+ * URLs of the pack and all of its mods and the checksums of the pack's overrides.
+ * The pack file and the mod files of both sides are hashed as well, installing from a plan fails for files which do
+ * not match it. All checksums are calculated with the plan's {@link #algorithm()}.
+ */
+public class PlanFile
+{
+    public static final int FORMAT = 2;
+    public final int format;
+    @Nonnull
+    public final String projectSlug;
+    @Nonnull
+    public final String gameVersion;
+    @Nonnull
+    public final ProjectVersion version;
+    @Nonnull
+    public final String packUrl;
+    /**
+     * The size of the pack file in bytes.
+     */
+    public final long packSize;
+    @Nonnull
+    public final HashCode packChecksum;
+    @Nonnull
+    public final List<ModFile> mods;
+    @Nonnull
+    public final String overridesPath;
+    @Nonnull
+    public final List<FileOverride> overrides;
+    /**
+     * The algorithm of all checksums in the plan, null for plans exported before algorithms were recorded.
+     */
+    @Nullable
+    public final ChecksumAlgorithm checksumAlgorithm;
+
+    public PlanFile(@Nonnull String projectSlug, @Nonnull String gameVersion, @Nonnull ProjectVersion version, @Nonnull String packUrl,
+                    long packSize, @Nonnull HashCode packChecksum, @Nonnull List<ModFile> mods, @Nonnull String overridesPath, @Nonnull List<FileOverride> overrides,
+                    @Nonnull ChecksumAlgorithm checksumAlgorithm)
+    {
+        this.format = FORMAT;
+        this.projectSlug = projectSlug;
+        this.gameVersion = gameVersion;
+        this.version = version;
+        this.packUrl = packUrl;
+        this.packSize = packSize;
+        this.packChecksum = packChecksum;
+        this.mods = mods;
+        this.overridesPath = overridesPath;
+        this.overrides = overrides;
+        this.checksumAlgorithm = checksumAlgorithm;
+    }
+
+    /**
+     * @return the algorithm of all checksums in the plan
+     */
+    @Nonnull
+    public ChecksumAlgorithm algorithm()
+    {
+        return ChecksumAlgorithm.orLegacy(checksumAlgorithm);
+    }
+
+    /**
+     * @return a project consisting only of the planned version, as if it had been requested from the API
+     */
+    @Nonnull
+    public CurseProject project()
+    {
+        return new CurseProject(projectSlug, "modpacks", null, null, ImmutableList.of(), version.created, version.created,
+                ImmutableListMultimap.of(gameVersion, version));
+    }
+
+    @Nullable
+    public ModFile mod(@Nonnull Mod mod)
+    {
+        return mods.stream().filter(m -> m.projectId == mod.projectId && m.fileId == mod.fileId).findFirst().orElse(null);
+    }
+
+    @Override
+    public String toString()
+    {
+        return MoreObjects.toStringHelper(this)
+                .add("format", format)
+                .add("projectSlug", projectSlug)
+                .add("gameVersion", gameVersion)
+                .add("version", version)
+                .add("packUrl", packUrl)
+                .add("packSize", packSize)
+                .add("packChecksum", packChecksum)
+                .add("mods", mods)
+                .add("overridesPath", overridesPath)
+                .add("overrides", overrides.size())
+                .add("checksumAlgorithm", algorithm())
+                .toString();
+    }
+
+    public static class ModFile
+    {
+        public final int projectId;
+        public final int fileId;
+        @Nonnull
+        public final String url;
+        /**
+         * The size of the file in bytes.
+         */
+        public final long size;
+        @Nonnull
+        public final HashCode checksum;
+
+        public ModFile(int projectId, int fileId, @Nonnull String url, long size, @Nonnull HashCode checksum)
+        {
+            this.projectId = projectId;
+            this.fileId = fileId;
+            this.url = url;
+            this.size = size;
+            this.checksum = checksum;
+        }
+
+        @Override
+        public String toString()
+        {
+            return MoreObjects.toStringHelper(this)
+                    .add("projectId", projectId)
+                    .add("fileId", fileId)
+                    .add("url", url)
+                    .add("size", size)
+                    .add("checksum", checksum)
+                    .toString();
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package de.mineformers.cursesync.sync.progress;
+
+import com.google.common.base.MoreObjects;
+import de.mineformers.cursesync.sync.installer.InstallGraph;
+
+import javax.annotation.Nullable;
+
+/**
+ * Something that happened during an installation, published through a {@link ProgressPublisher}.
+ */
+public abstract class ProgressEvent
+{
+    /**
+     * Progress events only report intermediate states, a subscriber which cannot keep up may miss some of them.
+     * All other events are always delivered.
+     */
+    public boolean droppable()
+    {
+        return false;
+    }
+
+    public static class StepStarted extends ProgressEvent
+    {
+        public final String step;
+
+        public StepStarted(String step)
+        {
+            this.step = step;
+        }
+
+        @Override
+        public String toString()
+        {
+            return MoreObjects.toStringHelper(this).add("step", step).toString();
+        }
+    }
+
+    public static class StepFinished extends ProgressEvent
+    {
+        public final String step;
+        public final InstallGraph.State state;
+        public final long millis;
+
+        public StepFinished(String step, InstallGraph.State state, long millis)
+        {
+            this.step = step;
+            this.state = state;
+            this.millis = millis;
+        }
+
+        @Override
+        public String toString()
+        {
+            return MoreObjects.toStringHelper(this).add("step", step).add("state", state).add("millis", millis).toString();
+        }
+    }
+
+    public static class Transfer extends ProgressEvent
+    {
+        public final String file;
+        public final long bytes;
+        /**
+         * The size of the file or -1 if unknown.
+         */
+        public final long total;
+
+        public Transfer(String file, long bytes, long total)
+        {
+            this.file = file;
+            this.bytes = bytes;
+            this.total = total;
+        }
+
+        @Override
+        public boolean droppable()
+        {
+            return bytes != total;
+        }
+
+        @Override
+        public String toString()
+        {
+            return MoreObjects.toStringHelper(this).add("file", file).add("bytes", bytes).add("total", total).toString();
+        }
+    }
+
+    public static class Hashing extends ProgressEvent
+    {
+        public final String file;
+        public final int hashed;
+
+        public Hashing(String file, int hashed)
+        {
+            this.file = file;
+            this.hashed = hashed;
+        }
+
+        @Override
+        public boolean droppable()
+        {
+            return true;
+        }
+
+        @Override
+        public String toString()
+        {
+            return MoreObjects.toStringHelper(this).add("file", file).add("hashed", hashed).toString();
+        }
+    }
+
+    public static class Failure extends ProgressEvent
+    {
+        @Nullable
+        public final String step;
+        public final String message;
+        @Nullable
+        public final Throwable cause;
+
+        public Failure(@Nullable String step, String message, @Nullable Throwable cause)
+        {
+            this.step = step;
+            this.message = message;
+            this.cause = cause;
+        }
+
+        @Override
+        public String toString()
+        {
+            return MoreObjects.toStringHelper(this).add("step", step).add("message", message).add("cause", cause).toString();
+        }
+    }
+}
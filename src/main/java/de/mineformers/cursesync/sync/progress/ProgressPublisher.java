@@ -0,0 +1,225 @@
+package de.mineformers.cursesync.sync.progress;
+
+import javax.annotation.Nonnull;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Publishes the {@link ProgressEvent}s of a single installation to any number of subscribers.
+ * <p>
+ * Publishing never blocks: every subscriber has a bounded buffer and receives its events on its own executor, only as
+ * many as it {@link Subscription#request(long) requested}. If a subscriber falls behind and its buffer is full,
+ * {@link ProgressEvent#droppable() droppable} events are discarded for it and counted instead. All other events are
+ * always buffered, there are only few of them per installation.
+ * <p>
+ * The contract follows the reactive streams one, so subscribers can easily be adapted to other stream libraries.
+ */
+public class ProgressPublisher implements AutoCloseable
+{
+    public static final int DEFAULT_BUFFER = 256;
+    private final List<ProgressSubscription> subscriptions = new CopyOnWriteArrayList<>();
+    private volatile boolean closed;
+
+    /**
+     * Subscribes with the default buffer size, delivering events on the common fork join pool.
+     */
+    @Nonnull
+    public Subscription subscribe(@Nonnull Subscriber subscriber)
+    {
+        return subscribe(subscriber, ForkJoinPool.commonPool(), DEFAULT_BUFFER);
+    }
+
+    /**
+     * @param executor the executor to deliver events on, it should not run them on the publishing thread
+     * @param buffer   the maximum number of undelivered droppable events
+     */
+    @Nonnull
+    public Subscription subscribe(@Nonnull Subscriber subscriber, @Nonnull Executor executor, int buffer)
+    {
+        ProgressSubscription subscription = new ProgressSubscription(subscriber, executor, Math.max(1, buffer));
+        subscriptions.add(subscription);
+        subscription.start();
+        if (closed)
+            subscription.complete();
+        return subscription;
+    }
+
+    public boolean hasSubscribers()
+    {
+        return !subscriptions.isEmpty();
+    }
+
+    public void publish(@Nonnull ProgressEvent event)
+    {
+        if (closed)
+            return;
+        for (ProgressSubscription subscription : subscriptions)
+            subscription.offer(event);
+    }
+
+    /**
+     * Signals all subscribers that no more events will follow, once they received the remaining buffered ones.
+     */
+    @Override
+    public void close()
+    {
+        closed = true;
+        for (ProgressSubscription subscription : subscriptions)
+            subscription.complete();
+    }
+
+    public interface Subscriber
+    {
+        /**
+         * Called before any other method, subscribers have to request events before they receive any.
+         */
+        void onSubscribe(@Nonnull Subscription subscription);
+
+        void onNext(@Nonnull ProgressEvent event);
+
+        void onComplete();
+    }
+
+    public interface Subscription
+    {
+        /**
+         * Allows delivering up to n further events, {@link Long#MAX_VALUE} removes the limit.
+         */
+        void request(long n);
+
+        void cancel();
+
+        /**
+         * @return the number of events which were discarded because the subscriber did not keep up
+         */
+        long dropped();
+    }
+
+    private class ProgressSubscription implements Subscription
+    {
+        private final Subscriber subscriber;
+        private final Executor executor;
+        private final int buffer;
+        private final Queue<ProgressEvent> queue = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger size = new AtomicInteger();
+        private final AtomicLong demand = new AtomicLong();
+        private final AtomicLong dropped = new AtomicLong();
+        private final AtomicInteger pending = new AtomicInteger();
+        private volatile boolean subscribed;
+        private volatile boolean completed;
+        private volatile boolean cancelled;
+        private boolean done;
+
+        ProgressSubscription(Subscriber subscriber, Executor executor, int buffer)
+        {
+            this.subscriber = subscriber;
+            this.executor = executor;
+            this.buffer = buffer;
+        }
+
+        void start()
+        {
+            signal();
+        }
+
+        void offer(ProgressEvent event)
+        {
+            if (cancelled)
+                return;
+            if (event.droppable() && size.get() >= buffer)
+            {
+                dropped.incrementAndGet();
+                return;
+            }
+            size.incrementAndGet();
+            queue.offer(event);
+            signal();
+        }
+
+        void complete()
+        {
+            completed = true;
+            signal();
+        }
+
+        @Override
+        public void request(long n)
+        {
+            if (n <= 0)
+                return;
+            demand.accumulateAndGet(n, (current, added) -> current + added < 0 ? Long.MAX_VALUE : current + added);
+            signal();
+        }
+
+        @Override
+        public void cancel()
+        {
+            cancelled = true;
+            subscriptions.remove(this);
+            queue.clear();
+        }
+
+        @Override
+        public long dropped()
+        {
+            return dropped.get();
+        }
+
+        /**
+         * Schedules a delivery run unless one is already scheduled, which will then pick up the new state.
+         */
+        private void signal()
+        {
+            if (pending.getAndIncrement() != 0)
+                return;
+            try
+            {
+                executor.execute(this::deliver);
+            }
+            catch (RejectedExecutionException e)
+            {
+                cancel();
+            }
+        }
+
+        private void deliver()
+        {
+            int missed = 1;
+            do
+            {
+                try
+                {
+                    if (!subscribed)
+                    {
+                        subscribed = true;
+                        subscriber.onSubscribe(this);
+                    }
+                    ProgressEvent event;
+                    while (!cancelled && demand.get() > 0 && (event = queue.poll()) != null)
+                    {
+                        size.decrementAndGet();
+                        if (demand.get() != Long.MAX_VALUE)
+                            demand.decrementAndGet();
+                        subscriber.onNext(event);
+                    }
+                    if (!cancelled && !done && completed && queue.isEmpty())
+                    {
+                        done = true;
+                        subscriptions.remove(this);
+                        subscriber.onComplete();
+                    }
+                }
+                catch (RuntimeException e)
+                {
+                    // A failing subscriber must not affect the installation, it just stops receiving events
+                    cancel();
+                }
+                missed = pending.addAndGet(-missed);
+            }
+            while (missed != 0);
+        }
+    }
+}
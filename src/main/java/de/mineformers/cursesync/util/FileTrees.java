@@ -0,0 +1,126 @@
+package de.mineformers.cursesync.util;
+
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * Helpers for cheaply duplicating and removing directory trees.
+ */
+public class FileTrees
+{
+    /**
+     * Recreates the source tree at the destination, hard linking every file.
+     * Files on file systems without hard link support are copied instead.
+     *
+     * @return the number of files which had to be copied
+     */
+    public static int linkTree(@Nonnull Path source, @Nonnull Path destination) throws IOException
+    {
+        int[] copied = {0};
+        Files.walkFileTree(source, new SimpleFileVisitor<Path>()
+        {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException
+            {
+                Files.createDirectories(destination.resolve(source.relativize(dir)));
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException
+            {
+                if (!linkOrCopy(file, destination.resolve(source.relativize(file))))
+                    copied[0]++;
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return copied[0];
+    }
+
+    /**
+     * @return true if the file could be linked, false if it was copied
+     */
+    public static boolean linkOrCopy(@Nonnull Path file, @Nonnull Path target) throws IOException
+    {
+        if (file.getFileSystem() != target.getFileSystem())
+        {
+            Files.copy(file, target, StandardCopyOption.COPY_ATTRIBUTES);
+            return false;
+        }
+        try
+        {
+            Files.createLink(target, file);
+            return true;
+        }
+        catch (FileAlreadyExistsException e)
+        {
+            throw e;
+        }
+        catch (UnsupportedOperationException | FileSystemException e)
+        {
+            Files.copy(file, target, StandardCopyOption.COPY_ATTRIBUTES);
+            return false;
+        }
+    }
+
+    /**
+     * Moves every file of the source tree to the same place in the destination, replacing existing files.
+     * Replaced files are unlinked rather than overwritten, so other hard links to them keep their contents.
+     */
+    public static void moveTree(@Nonnull Path source, @Nonnull Path destination) throws IOException
+    {
+        Files.walkFileTree(source, new SimpleFileVisitor<Path>()
+        {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException
+            {
+                Files.createDirectories(destination.resolve(source.relativize(dir)));
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException
+            {
+                Path target = destination.resolve(source.relativize(file));
+                Files.deleteIfExists(target);
+                Files.move(file, target);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    public static void deleteTree(@Nonnull Path root) throws IOException
+    {
+        if (!Files.exists(root, LinkOption.NOFOLLOW_LINKS))
+            return;
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>()
+        {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException
+            {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException
+            {
+                if (exc != null)
+                    throw exc;
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /**
+     * Writes a file by moving a fully written temporary file over it.
+     * This never modifies the existing file in place, which keeps hard links to it intact.
+     */
+    public static void replace(@Nonnull Path temporary, @Nonnull Path target) throws IOException
+    {
+        Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
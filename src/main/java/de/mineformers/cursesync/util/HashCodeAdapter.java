@@ -0,0 +1,36 @@
+package de.mineformers.cursesync.util;
+
+import com.google.common.hash.HashCode;
+import com.google.common.reflect.TypeToken;
+import com.google.gson.*;
+
+import java.lang.reflect.Type;
+
+/**
+ * Stores checksums as lower case hex strings, which is also how MD5 checksums were stored before.
+ */
+public class HashCodeAdapter implements JsonSerializer<HashCode>, JsonDeserializer<HashCode>
+{
+    public static final Type TYPE = new TypeToken<HashCode>()
+    {
+    }.getType();
+
+    @Override
+    public HashCode deserialize(JsonElement json, Type typeOfT, JsonDeserializationContext context) throws JsonParseException
+    {
+        try
+        {
+            return HashCode.fromString(json.getAsString().toLowerCase());
+        }
+        catch (IllegalArgumentException e)
+        {
+            throw new JsonParseException("Invalid checksum '" + json.getAsString() + "'", e);
+        }
+    }
+
+    @Override
+    public JsonElement serialize(HashCode src, Type typeOfSrc, JsonSerializationContext context)
+    {
+        return new JsonPrimitive(src.toString());
+    }
+}
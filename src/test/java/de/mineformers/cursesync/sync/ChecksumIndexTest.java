@@ -0,0 +1,183 @@
+package de.mineformers.cursesync.sync;
+
+import com.google.common.hash.HashCode;
+import com.google.inject.AbstractModule;
+import com.google.inject.Guice;
+import de.mineformers.cursesync.CurseSync;
+import de.mineformers.cursesync.sync.model.ChecksumAlgorithm;
+import de.mineformers.cursesync.util.FileTrees;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class ChecksumIndexTest
+{
+    private static final Logger LOG = LogManager.getLogger(ChecksumIndexTest.class);
+    private static final HashCode CHECKSUM = HashCode.fromString("0123456789abcdef");
+    private Path root;
+    private Path output;
+
+    @Before
+    public void setUp() throws IOException
+    {
+        root = Files.createTempDirectory("checksum-index");
+        output = Files.createDirectories(root.resolve("output"));
+    }
+
+    @After
+    public void tearDown() throws IOException
+    {
+        FileTrees.deleteTree(root);
+    }
+
+    private ChecksumIndex index(Path output)
+    {
+        CurseSync.Configuration config = new CurseSync.Configuration(null, null, null, output.toFile(), null, false, root.toFile(), false);
+        ChecksumIndex index = new ChecksumIndex();
+        Guice.createInjector(new AbstractModule()
+        {
+            @Override
+            protected void configure()
+            {
+                bind(Logger.class).toInstance(LOG);
+                bind(CurseSync.Configuration.class).toInstance(config);
+            }
+        }).injectMembers(index);
+        return index;
+    }
+
+    /**
+     * Creates a file last modified an hour ago, so the index does not consider it racy.
+     */
+    private Path file(String path, String content) throws IOException
+    {
+        Path file = output.resolve(path);
+        Files.createDirectories(file.getParent());
+        Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+        Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis() - TimeUnit.HOURS.toMillis(1)));
+        return file;
+    }
+
+    private static BasicFileAttributes attributes(Path file) throws IOException
+    {
+        return Files.readAttributes(file, BasicFileAttributes.class);
+    }
+
+    private void record(ChecksumIndex index, Path file) throws IOException
+    {
+        index.record(file, attributes(file), ChecksumAlgorithm.MURMUR3, CHECKSUM);
+    }
+
+    @Test
+    public void remembersChecksumsOfUnchangedFiles() throws IOException
+    {
+        ChecksumIndex index = index(output);
+        Path file = file("config/a.cfg", "a");
+        assertNull(index.lookup(file, attributes(file), ChecksumAlgorithm.MURMUR3));
+        record(index, file);
+        assertEquals(CHECKSUM, index.lookup(file, attributes(file), ChecksumAlgorithm.MURMUR3));
+    }
+
+    @Test
+    public void otherAlgorithmsAreHashedAgain() throws IOException
+    {
+        ChecksumIndex index = index(output);
+        Path file = file("config/a.cfg", "a");
+        record(index, file);
+        assertNull(index.lookup(file, attributes(file), ChecksumAlgorithm.MD5));
+    }
+
+    @Test
+    public void changedSizeOrModificationTimeInvalidates() throws IOException
+    {
+        ChecksumIndex index = index(output);
+        Path file = file("config/a.cfg", "a");
+        record(index, file);
+        Files.setLastModifiedTime(file, FileTime.fromMillis(attributes(file).lastModifiedTime().toMillis() + 1000));
+        assertNull(index.lookup(file, attributes(file), ChecksumAlgorithm.MURMUR3));
+        Path other = file("config/b.cfg", "b");
+        record(index, other);
+        FileTime modified = attributes(other).lastModifiedTime();
+        Files.write(other, "bb".getBytes(StandardCharsets.UTF_8));
+        Files.setLastModifiedTime(other, modified);
+        assertNull(index.lookup(other, attributes(other), ChecksumAlgorithm.MURMUR3));
+    }
+
+    @Test
+    public void replacedFilesInvalidate() throws IOException
+    {
+        ChecksumIndex index = index(output);
+        Path file = file("config/a.cfg", "a");
+        BasicFileAttributes before = attributes(file);
+        if (before.fileKey() == null)
+            return;
+        record(index, file);
+        // Keep another link, so the replacement cannot reuse the inode
+        Files.createLink(root.resolve("kept"), file);
+        Files.delete(file);
+        file("config/a.cfg", "b");
+        Files.setLastModifiedTime(file, before.lastModifiedTime());
+        assertNull(index.lookup(file, attributes(file), ChecksumAlgorithm.MURMUR3));
+    }
+
+    @Test
+    public void storesOnlyUsedAndSettledEntries() throws IOException
+    {
+        ChecksumIndex first = index(output);
+        Path used = file("used.txt", "a");
+        Path unused = file("unused.txt", "b");
+        Path racy = output.resolve("racy.txt");
+        Files.write(racy, "c".getBytes(StandardCharsets.UTF_8));
+        record(first, used);
+        record(first, unused);
+        record(first, racy);
+        assertEquals(CHECKSUM, first.lookup(racy, attributes(racy), ChecksumAlgorithm.MURMUR3));
+        first.save();
+
+        ChecksumIndex second = index(output);
+        assertEquals(CHECKSUM, second.lookup(used, attributes(used), ChecksumAlgorithm.MURMUR3));
+        assertNull(second.lookup(racy, attributes(racy), ChecksumAlgorithm.MURMUR3));
+        second.save();
+
+        ChecksumIndex third = index(output);
+        assertEquals(CHECKSUM, third.lookup(used, attributes(used), ChecksumAlgorithm.MURMUR3));
+        assertNull(third.lookup(unused, attributes(unused), ChecksumAlgorithm.MURMUR3));
+    }
+
+    @Test
+    public void survivesMovingTheOutputDirectory() throws IOException
+    {
+        ChecksumIndex index = index(output);
+        record(index, file("config/a.cfg", "a"));
+        index.save();
+        Path moved = Files.move(output, root.resolve("moved"));
+        Path file = moved.resolve("config/a.cfg");
+        assertEquals(CHECKSUM, index(moved).lookup(file, attributes(file), ChecksumAlgorithm.MURMUR3));
+    }
+
+    @Test
+    public void ignoresIndicesOfOtherFormats() throws IOException
+    {
+        Path file = file("config/a.cfg", "a");
+        ChecksumIndex index = index(output);
+        record(index, file);
+        index.save();
+        File stored = output.resolve(ChecksumIndex.FILE_NAME).toFile();
+        String json = new String(Files.readAllBytes(stored.toPath()), StandardCharsets.UTF_8);
+        Files.write(stored.toPath(), json.replace("\"format\":" + ChecksumIndex.FORMAT, "\"format\":1").getBytes(StandardCharsets.UTF_8));
+        assertNull(index(output).lookup(file, attributes(file), ChecksumAlgorithm.MURMUR3));
+    }
+}
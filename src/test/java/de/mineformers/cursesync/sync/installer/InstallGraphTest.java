@@ -0,0 +1,186 @@
+package de.mineformers.cursesync.sync.installer;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static de.mineformers.cursesync.sync.installer.InstallGraph.State.*;
+import static de.mineformers.cursesync.sync.installer.InstallStep.Result.FAILURE;
+import static de.mineformers.cursesync.sync.installer.InstallStep.Result.SKIP_NEXT;
+import static de.mineformers.cursesync.sync.installer.InstallStep.Result.SUCCESS;
+import static org.junit.Assert.*;
+
+public class InstallGraphTest
+{
+    private static final Logger LOG = LogManager.getLogger(InstallGraphTest.class);
+    private final List<String> executed = Collections.synchronizedList(Lists.newArrayList());
+
+    private InstallStep step(String name, InstallStep.Result result)
+    {
+        return () ->
+        {
+            executed.add(name);
+            return result;
+        };
+    }
+
+    @Test
+    public void runsStepsAfterTheirInputs()
+    {
+        InstallGraph graph = new InstallGraph();
+        graph.add("a", step("a", SUCCESS)).produces("A");
+        graph.add("b", step("b", SUCCESS)).requires("A").produces("B");
+        graph.add("c", step("c", SUCCESS)).requires("A", "B");
+        assertTrue(graph.execute(LOG, null));
+        assertEquals(Lists.newArrayList("a", "b", "c"), executed);
+        assertEquals(InstallGraph.State.SUCCESS, graph.results().get("c"));
+    }
+
+    @Test
+    public void skipNextOnlySkipsDirectConsumers()
+    {
+        InstallGraph graph = new InstallGraph();
+        graph.add("a", step("a", SKIP_NEXT)).produces("A");
+        graph.add("b", step("b", SUCCESS)).requires("A").produces("B");
+        graph.add("c", step("c", SUCCESS)).requires("B");
+        graph.add("d", step("d", SUCCESS)).produces("D");
+        graph.add("e", step("e", SUCCESS)).requires("A", "D");
+        assertTrue(graph.execute(LOG, null));
+        assertEquals(InstallGraph.State.SKIP_NEXT, graph.results().get("a"));
+        assertEquals(SKIPPED, graph.results().get("b"));
+        assertEquals(InstallGraph.State.SUCCESS, graph.results().get("c"));
+        assertEquals(SKIPPED, graph.results().get("e"));
+        assertFalse(executed.contains("b"));
+        assertFalse(executed.contains("e"));
+        assertTrue(executed.contains("c"));
+    }
+
+    @Test
+    public void failureCancelsConsumers()
+    {
+        InstallGraph graph = new InstallGraph();
+        graph.add("a", step("a", FAILURE)).produces("A");
+        graph.add("b", step("b", SUCCESS)).requires("A").produces("B");
+        graph.add("c", step("c", SUCCESS)).requires("B");
+        assertFalse(graph.execute(LOG, null));
+        assertEquals(InstallGraph.State.FAILURE, graph.results().get("a"));
+        assertEquals(CANCELLED, graph.results().get("b"));
+        assertEquals(CANCELLED, graph.results().get("c"));
+        assertEquals(Lists.newArrayList("a"), executed);
+    }
+
+    @Test
+    public void failureCancelsStepsWithAnyFailedInput()
+    {
+        InstallGraph graph = new InstallGraph();
+        graph.add("a", step("a", FAILURE)).produces("A");
+        graph.add("b", step("b", SUCCESS)).produces("B");
+        graph.add("c", step("c", SUCCESS)).requires("B");
+        graph.add("d", step("d", SUCCESS)).requires("A", "B");
+        assertFalse(graph.execute(LOG, null));
+        assertEquals(CANCELLED, graph.results().get("d"));
+        assertFalse(executed.contains("d"));
+    }
+
+    @Test
+    public void exceptionsFailTheStep()
+    {
+        InstallGraph graph = new InstallGraph();
+        graph.add("a", () ->
+        {
+            throw new IllegalStateException("broken");
+        }).produces("A");
+        graph.add("b", step("b", SUCCESS)).requires("A");
+        assertFalse(graph.execute(LOG, null));
+        assertEquals(InstallGraph.State.FAILURE, graph.results().get("a"));
+        assertEquals(CANCELLED, graph.results().get("b"));
+    }
+
+    @Test
+    public void targetsOnlyRunRequiredSteps()
+    {
+        InstallGraph graph = new InstallGraph();
+        graph.add("a", step("a", SUCCESS)).produces("A");
+        graph.add("b", step("b", SUCCESS)).requires("A").produces("B");
+        graph.add("c", step("c", SUCCESS)).produces("C");
+        graph.add("d", step("d", SUCCESS)).requires("B", "C");
+        assertTrue(graph.execute(LOG, null, ImmutableSet.of("B")));
+        assertEquals(Lists.newArrayList("a", "b"), executed);
+        assertEquals(ImmutableSet.of("a", "b"), graph.results().keySet());
+    }
+
+    @Test
+    public void publishedOutputsStartConsumersEarly() throws InterruptedException
+    {
+        InstallGraph graph = new InstallGraph();
+        CountDownLatch consumed = new CountDownLatch(1);
+        graph.add("a", () ->
+        {
+            graph.publish("A");
+            try
+            {
+                // Only returns once the consumer ran, which requires the early publication
+                if (!consumed.await(10, TimeUnit.SECONDS))
+                    return FAILURE;
+            }
+            catch (InterruptedException e)
+            {
+                return FAILURE;
+            }
+            return SUCCESS;
+        }).produces("A", "B");
+        graph.add("b", () ->
+        {
+            consumed.countDown();
+            return SUCCESS;
+        }).requires("A");
+        assertTrue(graph.execute(LOG, null));
+        assertEquals(InstallGraph.State.SUCCESS, graph.results().get("b"));
+    }
+
+    @Test
+    public void publishedOutputsIgnoreTheStepResult()
+    {
+        InstallGraph graph = new InstallGraph();
+        graph.add("a", () ->
+        {
+            graph.publish("A");
+            return SKIP_NEXT;
+        }).produces("A", "B");
+        graph.add("b", step("b", SUCCESS)).requires("A");
+        graph.add("c", step("c", SUCCESS)).requires("B");
+        assertTrue(graph.execute(LOG, null));
+        assertEquals(InstallGraph.State.SUCCESS, graph.results().get("b"));
+        assertEquals(SKIPPED, graph.results().get("c"));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void publishRejectsUnknownResources()
+    {
+        new InstallGraph().publish("A");
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void rejectsInputsWithoutProducer()
+    {
+        InstallGraph graph = new InstallGraph();
+        graph.add("a", step("a", SUCCESS)).requires("A");
+        graph.execute(LOG, null);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void rejectsResourcesProducedTwice()
+    {
+        InstallGraph graph = new InstallGraph();
+        graph.add("a", step("a", SUCCESS)).produces("A");
+        graph.add("b", step("b", SUCCESS)).produces("A");
+        graph.execute(LOG, null);
+    }
+}
@@ -0,0 +1,168 @@
+package de.mineformers.cursesync.sync.mode;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.hash.HashCode;
+import com.google.inject.AbstractModule;
+import com.google.inject.Guice;
+import de.mineformers.cursesync.CurseSync;
+import de.mineformers.cursesync.sync.ResourceGovernor;
+import de.mineformers.cursesync.sync.model.ChecksumAlgorithm;
+import de.mineformers.cursesync.sync.model.FileOverride;
+import de.mineformers.cursesync.sync.model.Installation;
+import de.mineformers.cursesync.sync.model.OverrideFilter;
+import de.mineformers.cursesync.util.FileTrees;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class FileStrategyTest
+{
+    private static final Logger LOG = LogManager.getLogger(FileStrategyTest.class);
+    private Path root;
+    private Path output;
+    private CurseSync.Configuration config;
+    private Installation installation;
+
+    @Before
+    public void setUp() throws IOException
+    {
+        root = Files.createTempDirectory("file-strategy");
+        output = Files.createDirectories(root.resolve("output"));
+        config = new CurseSync.Configuration("1-pack", "1.12.2", null, output.toFile(), Mode.UPDATE, false, root.resolve("tmp").toFile(), false);
+        installation = new Installation(1, "pack", "1.12.2", false, root.resolve("mods").toFile(), null, null, null, Lists.newArrayList());
+        installation.checksumAlgorithm = ChecksumAlgorithm.MURMUR3;
+    }
+
+    @After
+    public void tearDown() throws IOException
+    {
+        FileTrees.deleteTree(root);
+    }
+
+    private FileStrategy strategy()
+    {
+        return Guice.createInjector(new AbstractModule()
+        {
+            @Override
+            protected void configure()
+            {
+                bind(Logger.class).toInstance(LOG);
+                bind(CurseSync.Configuration.class).toInstance(config);
+                bind(Installation.class).toInstance(installation);
+                bind(ResourceGovernor.class).toInstance(new ResourceGovernor(2, 0, false));
+            }
+        }).getInstance(UpdateStrategy.class);
+    }
+
+    private static HashCode hash(ChecksumAlgorithm algorithm, String content)
+    {
+        return algorithm.function().hashString(content, StandardCharsets.UTF_8);
+    }
+
+    private static FileOverride override(String path, ChecksumAlgorithm algorithm, String content)
+    {
+        return new FileOverride(path, hash(algorithm, content));
+    }
+
+    /**
+     * Writes a file of the existing installation and records it with the installation's algorithm.
+     */
+    private void installed(String path, String content) throws IOException
+    {
+        Path file = output.resolve(path);
+        Files.createDirectories(file.getParent());
+        Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+        installation.overrides.add(override(path, ChecksumAlgorithm.orLegacy(installation.checksumAlgorithm), content));
+    }
+
+    private boolean exists(String path)
+    {
+        return Files.exists(output.resolve(path));
+    }
+
+    private boolean deleteOldOverrides(List<FileOverride> overrides)
+    {
+        return strategy().deleteOldOverrides(output.toFile(), overrides, ChecksumAlgorithm.MURMUR3);
+    }
+
+    @Test
+    public void keepsOverridesMatchingTheNewVersion() throws IOException
+    {
+        installed("config/a.cfg", "a");
+        assertTrue(deleteOldOverrides(ImmutableList.of(override("config/a.cfg", ChecksumAlgorithm.MURMUR3, "a"))));
+        assertTrue(exists("config/a.cfg"));
+    }
+
+    @Test
+    public void deletesOverridesTheNewVersionChanges() throws IOException
+    {
+        installed("config/a.cfg", "old");
+        assertTrue(deleteOldOverrides(ImmutableList.of(override("config/a.cfg", ChecksumAlgorithm.MURMUR3, "new"))));
+        assertFalse(exists("config/a.cfg"));
+    }
+
+    @Test
+    public void deletesOverridesRemovedFromThePack() throws IOException
+    {
+        installed("config/a.cfg", "a");
+        installed("config/b.cfg", "b");
+        assertTrue(deleteOldOverrides(ImmutableList.of(override("config/a.cfg", ChecksumAlgorithm.MURMUR3, "a"))));
+        assertTrue(exists("config/a.cfg"));
+        assertFalse(exists("config/b.cfg"));
+    }
+
+    @Test
+    public void deletesLocallyModifiedOverrides() throws IOException
+    {
+        installed("config/a.cfg", "a");
+        Files.write(output.resolve("config/a.cfg"), "modified".getBytes(StandardCharsets.UTF_8));
+        assertTrue(deleteOldOverrides(ImmutableList.of(override("config/a.cfg", ChecksumAlgorithm.MURMUR3, "a"))));
+        assertFalse(exists("config/a.cfg"));
+    }
+
+    @Test
+    public void leavesUnrecordedAndExcludedFilesAlone() throws IOException
+    {
+        installed("config/a.cfg", "a");
+        installed("saves/level.dat", "world");
+        Files.write(output.resolve("options.txt"), "local".getBytes(StandardCharsets.UTF_8));
+        config.overrideFilter = new OverrideFilter(null, ImmutableList.of("saves/**"));
+        assertTrue(deleteOldOverrides(ImmutableList.of()));
+        assertFalse(exists("config/a.cfg"));
+        assertTrue(exists("saves/level.dat"));
+        assertTrue(exists("options.txt"));
+    }
+
+    @Test
+    public void ignoresMissingOverrides() throws IOException
+    {
+        installed("config/a.cfg", "a");
+        Files.delete(output.resolve("config/a.cfg"));
+        assertTrue(deleteOldOverrides(ImmutableList.of(override("config/a.cfg", ChecksumAlgorithm.MURMUR3, "a"))));
+        assertFalse(new File(output.toFile(), "config/a.cfg").exists());
+    }
+
+    @Test
+    public void rehashesOverridesRecordedWithAnotherAlgorithm() throws IOException
+    {
+        installation.checksumAlgorithm = null;
+        installed("config/a.cfg", "a");
+        installed("config/b.cfg", "old");
+        assertTrue(deleteOldOverrides(ImmutableList.of(override("config/a.cfg", ChecksumAlgorithm.MURMUR3, "a"),
+                                                       override("config/b.cfg", ChecksumAlgorithm.MURMUR3, "new"))));
+        assertTrue(exists("config/a.cfg"));
+        assertFalse(exists("config/b.cfg"));
+    }
+}
@@ -0,0 +1,82 @@
+package de.mineformers.cursesync.sync.model;
+
+import com.google.common.collect.ImmutableList;
+import de.mineformers.cursesync.CurseSync;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class OverrideFilterTest
+{
+    @Test
+    public void emptyFiltersMatchEverything()
+    {
+        assertTrue(OverrideFilter.isEmpty(null));
+        assertTrue(OverrideFilter.isEmpty(new OverrideFilter(null, ImmutableList.of())));
+        assertFalse(OverrideFilter.isEmpty(new OverrideFilter(null, ImmutableList.of("*.txt"))));
+        assertTrue(new OverrideFilter(null, null).matches("config/forge.cfg"));
+    }
+
+    @Test
+    public void includesSelectFiles()
+    {
+        OverrideFilter filter = new OverrideFilter(ImmutableList.of("config/**", "options.txt"), null);
+        assertTrue(filter.matches("config/forge.cfg"));
+        assertTrue(filter.matches("config/mod/nested.json"));
+        assertTrue(filter.matches("options.txt"));
+        assertFalse(filter.matches("scripts/recipes.zs"));
+        assertFalse(filter.matches("config.txt"));
+    }
+
+    @Test
+    public void singleStarsStayInOneDirectory()
+    {
+        OverrideFilter filter = new OverrideFilter(ImmutableList.of("config/*.cfg"), null);
+        assertTrue(filter.matches("config/forge.cfg"));
+        assertFalse(filter.matches("config/mod/nested.cfg"));
+    }
+
+    @Test
+    public void excludesWinOverIncludes()
+    {
+        OverrideFilter filter = new OverrideFilter(ImmutableList.of("config/**"), ImmutableList.of("config/local/**", "**.bak"));
+        assertTrue(filter.matches("config/forge.cfg"));
+        assertFalse(filter.matches("config/local/keys.cfg"));
+        assertFalse(filter.matches("config/forge.cfg.bak"));
+    }
+
+    @Test
+    public void pathsAreNormalized()
+    {
+        OverrideFilter filter = new OverrideFilter(ImmutableList.of("config/**"), null);
+        assertTrue(filter.matches("config\\forge.cfg"));
+        assertTrue(filter.matches("/config/forge.cfg"));
+    }
+
+    @Test
+    public void excludedDirectoriesAreOnlyThoseExcludedCompletely()
+    {
+        OverrideFilter filter = new OverrideFilter(null, ImmutableList.of("saves/**", "config/*.bak"));
+        assertTrue(filter.excludesDirectory("saves"));
+        assertTrue(filter.excludesDirectory("saves/"));
+        assertFalse(filter.excludesDirectory("config"));
+        assertFalse(filter.excludesDirectory("resources"));
+        assertFalse(filter.excludesDirectory(""));
+    }
+
+    @Test
+    public void descriptionsAreStable()
+    {
+        OverrideFilter filter = new OverrideFilter(ImmutableList.of("a/**", "b"), ImmutableList.of("c"));
+        assertEquals("include=a/**,b;exclude=c", filter.describe());
+        assertEquals("include=;exclude=", new OverrideFilter(null, null).describe());
+    }
+
+    @Test
+    public void matchersAreRestoredAfterDeserialization()
+    {
+        OverrideFilter filter = CurseSync.GSON.fromJson(CurseSync.GSON.toJson(new OverrideFilter(ImmutableList.of("config/**"), null)), OverrideFilter.class);
+        assertTrue(filter.matches("config/forge.cfg"));
+        assertFalse(filter.matches("options.txt"));
+    }
+}
@@ -0,0 +1,161 @@
+package de.mineformers.cursesync.sync.progress;
+
+import com.google.common.collect.Lists;
+import org.junit.Test;
+
+import javax.annotation.Nonnull;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.*;
+
+public class ProgressPublisherTest
+{
+    /**
+     * Delivers on the publishing thread, which makes the delivery order deterministic.
+     */
+    private static final Executor DIRECT = Runnable::run;
+
+    @Test
+    public void deliversOnlyRequestedEvents()
+    {
+        ProgressPublisher publisher = new ProgressPublisher();
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        publisher.subscribe(subscriber, DIRECT, 16);
+        publisher.publish(new ProgressEvent.StepStarted("a"));
+        publisher.publish(new ProgressEvent.StepStarted("b"));
+        publisher.publish(new ProgressEvent.StepStarted("c"));
+        assertTrue(subscriber.events.isEmpty());
+        subscriber.subscription.request(2);
+        assertEquals(Lists.newArrayList("a", "b"), subscriber.steps());
+        subscriber.subscription.request(Long.MAX_VALUE);
+        assertEquals(Lists.newArrayList("a", "b", "c"), subscriber.steps());
+        publisher.publish(new ProgressEvent.StepStarted("d"));
+        assertEquals(4, subscriber.events.size());
+    }
+
+    @Test
+    public void dropsOnlyDroppableEventsWhenTheBufferIsFull()
+    {
+        ProgressPublisher publisher = new ProgressPublisher();
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        ProgressPublisher.Subscription subscription = publisher.subscribe(subscriber, DIRECT, 2);
+        for (int i = 0; i < 5; i++)
+            publisher.publish(new ProgressEvent.Transfer("file", i, 5));
+        publisher.publish(new ProgressEvent.StepStarted("a"));
+        assertEquals(3, subscription.dropped());
+        subscription.request(Long.MAX_VALUE);
+        assertEquals(3, subscriber.events.size());
+        assertEquals(0, ((ProgressEvent.Transfer) subscriber.events.get(0)).bytes);
+        assertEquals(1, ((ProgressEvent.Transfer) subscriber.events.get(1)).bytes);
+        assertEquals(Lists.newArrayList("a"), subscriber.steps());
+    }
+
+    @Test
+    public void slowSubscribersDoNotAffectOthers()
+    {
+        ProgressPublisher publisher = new ProgressPublisher();
+        RecordingSubscriber slow = new RecordingSubscriber();
+        RecordingSubscriber fast = new RecordingSubscriber();
+        ProgressPublisher.Subscription slowSubscription = publisher.subscribe(slow, DIRECT, 1);
+        publisher.subscribe(fast, DIRECT, 1).request(Long.MAX_VALUE);
+        for (int i = 0; i < 10; i++)
+            publisher.publish(new ProgressEvent.Hashing("file" + i, i));
+        assertEquals(10, fast.events.size());
+        assertEquals(9, slowSubscription.dropped());
+    }
+
+    @Test
+    public void completesAfterTheBufferedEvents()
+    {
+        ProgressPublisher publisher = new ProgressPublisher();
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        publisher.subscribe(subscriber, DIRECT, 16);
+        publisher.publish(new ProgressEvent.StepStarted("a"));
+        publisher.close();
+        publisher.publish(new ProgressEvent.StepStarted("b"));
+        assertFalse(subscriber.completed);
+        subscriber.subscription.request(Long.MAX_VALUE);
+        assertEquals(Lists.newArrayList("a"), subscriber.steps());
+        assertTrue(subscriber.completed);
+        assertFalse(publisher.hasSubscribers());
+    }
+
+    @Test
+    public void subscribingAfterCloseCompletesImmediately()
+    {
+        ProgressPublisher publisher = new ProgressPublisher();
+        publisher.close();
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        publisher.subscribe(subscriber, DIRECT, 16);
+        assertTrue(subscriber.completed);
+    }
+
+    @Test
+    public void cancelledSubscriptionsReceiveNothing()
+    {
+        ProgressPublisher publisher = new ProgressPublisher();
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        ProgressPublisher.Subscription subscription = publisher.subscribe(subscriber, DIRECT, 16);
+        publisher.publish(new ProgressEvent.StepStarted("a"));
+        subscription.cancel();
+        subscription.request(Long.MAX_VALUE);
+        publisher.publish(new ProgressEvent.StepStarted("b"));
+        assertTrue(subscriber.events.isEmpty());
+        assertFalse(publisher.hasSubscribers());
+    }
+
+    @Test
+    public void failingSubscribersAreCancelled()
+    {
+        ProgressPublisher publisher = new ProgressPublisher();
+        RecordingSubscriber subscriber = new RecordingSubscriber()
+        {
+            @Override
+            public void onNext(@Nonnull ProgressEvent event)
+            {
+                throw new IllegalStateException("broken");
+            }
+        };
+        publisher.subscribe(subscriber, DIRECT, 16).request(Long.MAX_VALUE);
+        publisher.publish(new ProgressEvent.StepStarted("a"));
+        assertFalse(publisher.hasSubscribers());
+        publisher.publish(new ProgressEvent.StepStarted("b"));
+    }
+
+    private static class RecordingSubscriber implements ProgressPublisher.Subscriber
+    {
+        final List<ProgressEvent> events = Lists.newArrayList();
+        ProgressPublisher.Subscription subscription;
+        boolean completed;
+
+        @Override
+        public void onSubscribe(@Nonnull ProgressPublisher.Subscription subscription)
+        {
+            this.subscription = subscription;
+        }
+
+        @Override
+        public void onNext(@Nonnull ProgressEvent event)
+        {
+            events.add(event);
+        }
+
+        @Override
+        public void onComplete()
+        {
+            completed = true;
+        }
+
+        List<String> steps()
+        {
+            List<String> steps = Lists.newArrayList();
+            for (ProgressEvent event : events)
+            {
+                if (event instanceof ProgressEvent.StepStarted)
+                    steps.add(((ProgressEvent.StepStarted) event).step);
+            }
+            return steps;
+        }
+    }
+}